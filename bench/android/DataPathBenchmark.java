@@ -0,0 +1,212 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks of the socket data path, running on top of the in-memory LoopbackTransport.
+//
+// "mvn -Pbench verify" runs them, on top of the stand-ins of the Android and Cordova classes in test/stubs,
+// and "-Djmh.args" passes the options to JMH.
+// The SampleTime mode reports the latency percentiles, and the "-prof gc" option of JMH
+// reports the allocation rate.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPathBenchmark {
+	// Counts the results, instead of sending them to the WebView
+	public class CountingCallbackContext extends CallbackContext {
+		public CountingCallbackContext() {
+			super("DataPathBenchmark", null);
+		}
+
+		@Override
+		public void sendPluginResult(PluginResult pluginResult) {
+			synchronized (DataPathBenchmark.this) {
+				mResults++;
+				DataPathBenchmark.this.notifyAll();
+			}
+		}
+	}
+
+	// Counts the received bytes, after they have gone through the same path as in the read loop
+	public class BenchmarkPlugin extends NetworkingBluetooth {
+		@Override
+		public void sendReceive(int socketId, byte[] buffer, int offset, int length) {
+			super.sendReceive(socketId, buffer, offset, length);
+
+			synchronized (DataPathBenchmark.this) {
+				mReceivedBytes += length;
+				DataPathBenchmark.this.notifyAll();
+			}
+		}
+	}
+
+	@Param({"64", "1024", "4096", "65536"})
+	public int mMessageSize;
+
+	@Param({"1", "4"})
+	public int mSocketCount;
+
+	@Param({"false", "true"})
+	public boolean mReceiveEnvelope;
+
+	public BenchmarkPlugin mPlugin;
+	public NetworkingBluetooth.ClientSocket[] mClientSockets;
+	public Transport.Connection[] mPeers;
+	public CallbackContext mCallbackContext;
+	public byte[] mMessage;
+	public byte[] mReadBuffer;
+	public long mResults = 0;
+	public long mReceivedBytes = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		LoopbackTransport transport = new LoopbackTransport();
+		UUID uuid = UUID.randomUUID();
+		Transport.Listener listener = transport.listen(Transport.SERVICE_NAME, uuid, Transport.TYPE_RFCOMM);
+
+		this.mPlugin = new BenchmarkPlugin();
+		this.mCallbackContext = new CountingCallbackContext();
+		this.mPlugin.mContextForReceive = this.mCallbackContext;
+		this.mPlugin.mContextForReceiveError = this.mCallbackContext;
+		this.mPlugin.mContextForDrain = this.mCallbackContext;
+		if (this.mReceiveEnvelope) {
+			this.mPlugin.mReceiveEnvelope = new byte[NetworkingBluetooth.RECEIVE_ENVELOPE_SIZE];
+		}
+
+		this.mMessage = new byte[this.mMessageSize];
+		this.mReadBuffer = new byte[NetworkingBluetooth.READ_BUFFER_SIZE];
+		this.mClientSockets = new NetworkingBluetooth.ClientSocket[this.mSocketCount];
+		this.mPeers = new Transport.Connection[this.mSocketCount];
+
+		for (int i = 0; i < this.mSocketCount; i++) {
+			final NetworkingBluetooth.ClientSocket clientSocket = this.mPlugin.new ClientSocket(i + 1, transport.connect(new Transport.ConnectAttempt(null, uuid)));
+			this.mPlugin.mClientSockets.put(clientSocket.mSocketId, clientSocket);
+			this.mClientSockets[i] = clientSocket;
+			this.mPeers[i] = listener.accept();
+
+			// The threads that would be started by addClientSocket, without a CordovaInterface
+			this.startThread(new Runnable() {
+				public void run() {
+					mPlugin.readLoop(clientSocket);
+				}
+			});
+			this.startThread(new Runnable() {
+				public void run() {
+					mPlugin.writeLoop(clientSocket);
+				}
+			});
+
+			// Discard what the plugin sends to the peer
+			final InputStream peerInput = this.mPeers[i].getInputStream();
+			this.startThread(new Runnable() {
+				public void run() {
+					byte[] buffer = new byte[65536];
+					try {
+						while (peerInput.read(buffer) >= 0) {
+						}
+					} catch (IOException e) {}
+				}
+			});
+		}
+
+		listener.close();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		for (int i = 0; i < this.mSocketCount; i++) {
+			this.mPeers[i].close();
+		}
+
+		// Closes the client sockets, and stops the threads of the plugin, like its event ring
+		this.mPlugin.onDestroy();
+	}
+
+	public void startThread(Runnable runnable) {
+		Thread thread = new Thread(runnable);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// The copy and the multipart PluginResult of a single read
+	@Benchmark
+	public void deliverRead() {
+		this.mPlugin.sendReceive(1, this.mReadBuffer, 0, Math.min(this.mMessageSize, this.mReadBuffer.length));
+	}
+
+	// The read loop of every socket, from the peer write to the onReceive result
+	@Benchmark
+	public void receive() throws IOException, InterruptedException {
+		long target;
+
+		synchronized (this) {
+			target = this.mReceivedBytes + ((long) this.mMessageSize * this.mSocketCount);
+		}
+
+		for (int i = 0; i < this.mSocketCount; i++) {
+			this.mPeers[i].getOutputStream().write(this.mMessage);
+		}
+
+		synchronized (this) {
+			while (this.mReceivedBytes < target) {
+				this.wait();
+			}
+		}
+	}
+
+	// The queue and the writer lane of every socket, from send to the success callback
+	@Benchmark
+	public void send() throws InterruptedException {
+		long target;
+
+		synchronized (this) {
+			target = this.mResults + this.mSocketCount;
+		}
+
+		for (int i = 0; i < this.mSocketCount; i++) {
+			this.mPlugin.send(this.mClientSockets[i], this.mPlugin.new SocketSendData(this.mCallbackContext, this.mMessage));
+		}
+
+		synchronized (this) {
+			while (this.mResults < target) {
+				this.wait();
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmarks of the device information sent by getDevice, getDevices and the discovery,
+// on top of the stand-in BluetoothDevice of test/stubs.
+//
+// "mvn -Pbench verify -Djmh.args=DeviceInfoBenchmark" runs only these.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeviceInfoBenchmark {
+	// Drops the results, instead of sending them to the WebView
+	public static class DroppingCallbackContext extends CallbackContext {
+		public DroppingCallbackContext() {
+			super("DeviceInfoBenchmark", null);
+		}
+
+		@Override
+		public void sendPluginResult(PluginResult pluginResult) {
+		}
+	}
+
+	// The devices found by each discovery
+	@Param({"1", "32"})
+	public int mDeviceCount;
+
+	public NetworkingBluetooth mPlugin;
+	public BluetoothDevice[] mDevices;
+	public short mRssi = -60;
+
+	@Setup
+	public void setUp() {
+		this.mPlugin = new NetworkingBluetooth();
+		this.mPlugin.mContextForDeviceAdded = new DroppingCallbackContext();
+		this.mDevices = new BluetoothDevice[this.mDeviceCount];
+
+		for (int i = 0; i < this.mDeviceCount; i++) {
+			BluetoothDevice device = new BluetoothDevice(String.format("00:11:22:33:%02X:%02X", i >> 8, i & 0xFF));
+			device.mName = "Device " + i;
+			device.mBondState = BluetoothDevice.BOND_BONDED;
+			device.mUuids = new ParcelUuid[] {
+				new ParcelUuid(UUID.fromString("00001101-0000-1000-8000-00805f9b34fb")),
+				new ParcelUuid(UUID.fromString("0000110a-0000-1000-8000-00805f9b34fb")),
+				new ParcelUuid(UUID.fromString("0000110c-0000-1000-8000-00805f9b34fb")),
+				new ParcelUuid(UUID.randomUUID())
+			};
+			this.mDevices[i] = device;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.mPlugin.onDestroy();
+	}
+
+	// The JSON of every device, as built by getDevices without the cache
+	@Benchmark
+	public int getDeviceInfo() throws JSONException {
+		int length = 0;
+
+		for (BluetoothDevice device : this.mDevices) {
+			length += this.mPlugin.getDeviceInfo(device).length();
+		}
+
+		return length;
+	}
+
+	// The same, once the cache holds the JSON of every device
+	@Benchmark
+	public int getCachedDeviceInfo() throws JSONException {
+		int length = 0;
+
+		this.mPlugin.mDeviceInfoCacheEnabled = true;
+		for (BluetoothDevice device : this.mDevices) {
+			JSONObject deviceInfo = this.mPlugin.getCachedDeviceInfo(device);
+			length += deviceInfo.length();
+		}
+
+		return length;
+	}
+
+	// A whole discovery: every device is found again, then the batch of the onDeviceAdded event is built
+	@Benchmark
+	public void discovery() {
+		this.mPlugin.mDeviceRegistry.resetReported();
+		for (BluetoothDevice device : this.mDevices) {
+			this.mPlugin.addDiscoveredDevice(device, device.mName, 0x5a020c, this.mRssi);
+		}
+		this.mPlugin.flushDeviceAdded();
+	}
+
+	// A discovery in progress, where only the rssi of the devices changes past the threshold
+	@Benchmark
+	public void rssiUpdates() {
+		this.mRssi = (short) ((this.mRssi == -60) ? -70 : -60);
+		for (BluetoothDevice device : this.mDevices) {
+			this.mPlugin.addDiscoveredDevice(device, device.mName, 0x5a020c, this.mRssi);
+		}
+		this.mPlugin.flushDeviceAdded();
+	}
+}
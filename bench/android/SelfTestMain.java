@@ -0,0 +1,101 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.UUID;
+
+// Runs the self-test on a Linux host, so that its numbers can be compared with the ones of a device.
+//
+// It needs only SelfTest, the transports and org.json, not the Android or Cordova classes:
+//
+//	javac -cp json.jar -d out bench/android/SelfTestMain.java src/android/SelfTest.java src/android/Transport.java \
+//		src/android/LoopbackTransport.java src/android/TcpLoopbackTransport.java
+//	java -cp json.jar:out cordova.plugin.networking.bluetooth.SelfTestMain
+//
+// Without arguments, the responder and the tester run in the same process, on top of both LoopbackTransport
+// and TcpLoopbackTransport. "responder" runs a responder on TcpLoopbackTransport and prints its port,
+// and "tester host:port" runs the tester against it.
+// An optional last argument sets the duration in milliseconds of each throughput test.
+public class SelfTestMain {
+	public static final UUID SELF_TEST_UUID = UUID.fromString("c6a1d2e4-53b5-4bde-8f7e-0a3d3c1c5e2b");
+
+	public static void main(String[] args) throws Exception {
+		JSONObject options = new JSONObject();
+
+		if ((args.length > 0) && args[0].equals("responder")) {
+			TcpLoopbackTransport transport = new TcpLoopbackTransport();
+			TcpLoopbackTransport.TcpListener listener = (TcpLoopbackTransport.TcpListener) transport.listen(Transport.SERVICE_NAME, SELF_TEST_UUID, Transport.TYPE_RFCOMM);
+			System.out.println("port " + listener.mServerSocket.getLocalPort());
+			respond(listener);
+			return;
+		}
+
+		if ((args.length > 1) && args[0].equals("tester")) {
+			if (args.length > 2) {
+				options.put("duration", Integer.parseInt(args[2]));
+			}
+			System.out.println(run(new TcpLoopbackTransport(), args[1], options).toString());
+			return;
+		}
+
+		if (args.length > 0) {
+			options.put("duration", Integer.parseInt(args[0]));
+		}
+
+		Transport[] transports = {new LoopbackTransport(), new TcpLoopbackTransport()};
+		for (Transport transport : transports) {
+			final Transport.Listener listener = transport.listen(Transport.SERVICE_NAME, SELF_TEST_UUID, Transport.TYPE_RFCOMM);
+			Thread responder = new Thread() {
+				public void run() {
+					respond(listener);
+				}
+			};
+			responder.setDaemon(true);
+			responder.start();
+
+			System.out.println(transport.getClass().getSimpleName() + " " + run(transport, null, options).toString());
+			listener.close();
+		}
+	}
+
+	public static void respond(Transport.Listener listener) {
+		Transport.Connection connection;
+
+		try {
+			while ((connection = listener.accept()) != null) {
+				try {
+					SelfTest.respond(connection);
+				} catch (IOException e) {
+					System.err.println("respond -- " + e.getMessage());
+				}
+				connection.close();
+			}
+		} catch (IOException e) {}
+	}
+
+	public static JSONObject run(Transport transport, String address, JSONObject options) throws Exception {
+		SelfTest selfTest = new SelfTest(options);
+		Transport.Connection connection = transport.connect(new Transport.ConnectAttempt(address, SELF_TEST_UUID));
+
+		try {
+			return selfTest.run(connection);
+		} finally {
+			connection.close();
+		}
+	}
+}
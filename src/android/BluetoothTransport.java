@@ -0,0 +1,212 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BluetoothTransport implements Transport {
+	public static class BluetoothConnection implements Transport.Connection {
+		public BluetoothSocket mSocket;
+
+		public BluetoothConnection(BluetoothSocket socket) {
+			this.mSocket = socket;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return this.mSocket.getInputStream();
+		}
+
+		public OutputStream getOutputStream() throws IOException {
+			return this.mSocket.getOutputStream();
+		}
+
+		public boolean isConnected() {
+			return this.mSocket.isConnected();
+		}
+
+		public String getAddress() {
+			return this.mSocket.getRemoteDevice().getAddress();
+		}
+
+		public void close() throws IOException {
+			this.mSocket.close();
+		}
+	}
+
+	public static class BluetoothListener implements Transport.Listener {
+		public BluetoothServerSocket mServerSocket;
+		public int mPsm;
+
+		public BluetoothListener(BluetoothServerSocket serverSocket, int psm) {
+			this.mServerSocket = serverSocket;
+			this.mPsm = psm;
+		}
+
+		public Transport.Connection accept() throws IOException {
+			BluetoothSocket socket = this.mServerSocket.accept();
+			if (socket == null) {
+				return null;
+			}
+
+			return new BluetoothConnection(socket);
+		}
+
+		public int getPsm() {
+			return this.mPsm;
+		}
+
+		public void close() throws IOException {
+			this.mServerSocket.close();
+		}
+	}
+
+	public BluetoothAdapter mBluetoothAdapter;
+	// The RFCOMM channels found by the SDP lookups, by address and uuid
+	public ConcurrentHashMap<String, Integer> mChannels = new ConcurrentHashMap<String, Integer>();
+
+	public BluetoothTransport(BluetoothAdapter bluetoothAdapter) {
+		this.mBluetoothAdapter = bluetoothAdapter;
+	}
+
+	public Transport.Connection connect(Transport.ConnectAttempt attempt) throws IOException {
+		BluetoothDevice device = this.mBluetoothAdapter.getRemoteDevice(attempt.mAddress);
+		String channelKey = attempt.mAddress + "/" + attempt.mUuid;
+		boolean secure = (attempt.mType == Transport.TYPE_RFCOMM) || (attempt.mType == Transport.TYPE_L2CAP);
+		BluetoothSocket socket;
+
+		// Note: You should always ensure that the device is not performing
+		// device discovery when you call connect().
+		// If discovery is in progress, then the connection attempt will be
+		// significantly slowed and is more likely to fail.
+		this.mBluetoothAdapter.cancelDiscovery();
+
+		if ((attempt.mType == Transport.TYPE_L2CAP) || (attempt.mType == Transport.TYPE_L2CAP_INSECURE)) {
+			checkL2capSupported();
+			socket = secure ? device.createL2capChannel(attempt.mPsm) : device.createInsecureL2capChannel(attempt.mPsm);
+			this.connectSocket(attempt, socket);
+			return new BluetoothConnection(socket);
+		}
+
+		// Connecting straight to a known channel skips the SDP lookup, that takes most of the connection time
+		Integer channel = this.mChannels.get(channelKey);
+		if (channel != null) {
+			socket = this.createRfcommSocket(device, channel, secure);
+			if (socket != null) {
+				try {
+					this.connectSocket(attempt, socket);
+					return new BluetoothConnection(socket);
+				} catch (IOException e) {
+					if (attempt.isCancelled()) {
+						throw e;
+					}
+				}
+			}
+
+			// The service may have moved to another channel
+			this.mChannels.remove(channelKey, channel);
+		}
+
+		if (secure) {
+			socket = device.createRfcommSocketToServiceRecord(attempt.mUuid);
+		} else {
+			socket = device.createInsecureRfcommSocketToServiceRecord(attempt.mUuid);
+		}
+		this.connectSocket(attempt, socket);
+
+		channel = this.getChannel(socket);
+		if (channel > 0) {
+			this.mChannels.put(channelKey, channel);
+		}
+
+		return new BluetoothConnection(socket);
+	}
+
+	public void connectSocket(Transport.ConnectAttempt attempt, BluetoothSocket socket) throws IOException {
+		try {
+			attempt.setSocket(socket);
+			socket.connect();
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException ex) {}
+
+			if (attempt.isCancelled()) {
+				throw new IOException(attempt.mCancelReason);
+			}
+			throw e;
+		}
+	}
+
+	// createRfcommSocket, createInsecureRfcommSocket and mPort are not part of the public API. They are non-SDK
+	// interfaces, that Android 9 and later may block, so that when they are not available, every connect
+	// does the SDP lookup.
+	public BluetoothSocket createRfcommSocket(BluetoothDevice device, int channel, boolean secure) {
+		try {
+			Method createRfcommSocket = device.getClass().getMethod(secure ? "createRfcommSocket" : "createInsecureRfcommSocket", int.class);
+			return (BluetoothSocket) createRfcommSocket.invoke(device, channel);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public int getChannel(BluetoothSocket socket) {
+		try {
+			Field port = socket.getClass().getDeclaredField("mPort");
+			port.setAccessible(true);
+			return port.getInt(socket);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	public Transport.Listener listen(String name, UUID uuid, int type) throws IOException {
+		BluetoothServerSocket serverSocket;
+
+		switch (type) {
+			case Transport.TYPE_RFCOMM_INSECURE:
+				return new BluetoothListener(this.mBluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord(name, uuid), -1);
+			case Transport.TYPE_L2CAP:
+			case Transport.TYPE_L2CAP_INSECURE:
+				checkL2capSupported();
+				if (type == Transport.TYPE_L2CAP) {
+					serverSocket = this.mBluetoothAdapter.listenUsingL2capChannel();
+				} else {
+					serverSocket = this.mBluetoothAdapter.listenUsingInsecureL2capChannel();
+				}
+				return new BluetoothListener(serverSocket, serverSocket.getPsm());
+			default:
+				return new BluetoothListener(this.mBluetoothAdapter.listenUsingRfcommWithServiceRecord(name, uuid), -1);
+		}
+	}
+
+	// L2CAP connection-oriented channels are part of the public API since Android 10
+	public static void checkL2capSupported() throws IOException {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+			throw new IOException("L2CAP is not supported");
+		}
+	}
+}
@@ -0,0 +1,106 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A pool of byte arrays shared by all the sockets, in size classes of powers of 2.
+// An acquired array can be longer than the length asked for, so its users keep the length next to it.
+// It holds the gather buffers of the write loops and the batches of the spool drain. The onReceive data
+// does not come from it, as PluginResult encodes the whole array, which must then be of the exact length.
+public class BufferPool {
+	public static final int MIN_CLASS_SIZE = 1024;
+	public static final int MAX_CLASS_SIZE = 65536;
+
+	public long mMaxPooledBytes;
+	public AtomicLong mPooledBytes = new AtomicLong(0);
+	// The arrays of each size class, from MIN_CLASS_SIZE to MAX_CLASS_SIZE
+	public ArrayDeque<byte[]>[] mClasses;
+
+	public BufferPool(long maxPooledBytes) {
+		this.mMaxPooledBytes = maxPooledBytes;
+		this.mClasses = newClasses(sizeClass(MAX_CLASS_SIZE) + 1);
+		for (int i = 0; i < this.mClasses.length; i++) {
+			this.mClasses[i] = new ArrayDeque<byte[]>();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ArrayDeque<byte[]>[] newClasses(int count) {
+		return (ArrayDeque<byte[]>[]) new ArrayDeque<?>[count];
+	}
+
+	// The index of the smallest size class that holds length bytes
+	public static int sizeClass(int length) {
+		if (length <= MIN_CLASS_SIZE) {
+			return 0;
+		}
+
+		return (32 - Integer.numberOfLeadingZeros(length - 1)) - (31 - Integer.numberOfLeadingZeros(MIN_CLASS_SIZE));
+	}
+
+	// Returns an array of at least length bytes.
+	// The arrays larger than MAX_CLASS_SIZE are not pooled, and have the exact length.
+	public byte[] acquire(int length) {
+		if (length > MAX_CLASS_SIZE) {
+			return new byte[length];
+		}
+
+		int index = sizeClass(length);
+		ArrayDeque<byte[]> buffers = this.mClasses[index];
+		byte[] buffer;
+
+		synchronized (buffers) {
+			buffer = buffers.pollFirst();
+		}
+
+		if (buffer != null) {
+			this.mPooledBytes.addAndGet(-buffer.length);
+			return buffer;
+		}
+
+		return new byte[MIN_CLASS_SIZE << index];
+	}
+
+	public void release(byte[] buffer) {
+		int length = buffer.length;
+
+		// Only the arrays of a size class are pooled
+		if ((length < MIN_CLASS_SIZE) || (length > MAX_CLASS_SIZE) || (Integer.bitCount(length) != 1)) {
+			return;
+		}
+
+		// When the pool is full the buffer is left to the garbage collector
+		if (this.mPooledBytes.addAndGet(length) > this.mMaxPooledBytes) {
+			this.mPooledBytes.addAndGet(-length);
+			return;
+		}
+
+		ArrayDeque<byte[]> buffers = this.mClasses[sizeClass(length)];
+		synchronized (buffers) {
+			buffers.addFirst(buffer);
+		}
+	}
+
+	public void clear() {
+		for (ArrayDeque<byte[]> buffers : this.mClasses) {
+			synchronized (buffers) {
+				buffers.clear();
+			}
+		}
+		this.mPooledBytes.set(0);
+	}
+}
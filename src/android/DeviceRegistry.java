@@ -0,0 +1,141 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// The devices found by the discovery, by address.
+// A device is reported again only when its information changes, or when it has not been seen for the TTL.
+public class DeviceRegistry {
+	public static final int UNCHANGED = 0;
+	public static final int RSSI_CHANGED = 1;
+	public static final int INFO_CHANGED = 2;
+	public static final short RSSI_UNKNOWN = Short.MIN_VALUE;
+
+	public static class Entry {
+		public String mAddress;
+		public String mName = null;
+		public int mDeviceClass = 0;
+		public short mRssi = RSSI_UNKNOWN;
+		public long mLastSeen = 0;
+		// Reset by each new discovery, so that every discovery reports all the devices that it finds
+		public boolean mReported = false;
+		// Built only when the name or the class of the device change
+		public JSONObject mInfo = null;
+
+		public Entry(String address) {
+			this.mAddress = address;
+		}
+	}
+
+	public long mTtl;
+	public int mRssiThreshold;
+	public HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+	// The entries to report in the next batch, in the order in which they changed
+	public LinkedHashMap<String, Entry> mChanged = new LinkedHashMap<String, Entry>();
+
+	public DeviceRegistry(long ttl, int rssiThreshold) {
+		this.mTtl = ttl;
+		this.mRssiThreshold = rssiThreshold;
+	}
+
+	public synchronized int update(String address, String name, int deviceClass, short rssi, long now) {
+		Entry entry;
+		int change;
+
+		this.expire(now);
+
+		entry = this.mEntries.get(address);
+		if (entry == null) {
+			entry = new Entry(address);
+			this.mEntries.put(address, entry);
+			change = INFO_CHANGED;
+		} else if (!entry.mReported || (deviceClass != entry.mDeviceClass) || ((name != null) && !name.equals(entry.mName))) {
+			change = INFO_CHANGED;
+		} else if ((rssi != RSSI_UNKNOWN) && (Math.abs(rssi - entry.mRssi) >= this.mRssiThreshold)) {
+			change = RSSI_CHANGED;
+		} else {
+			change = UNCHANGED;
+		}
+
+		if (name != null) {
+			entry.mName = name;
+		}
+		entry.mDeviceClass = deviceClass;
+		if (rssi != RSSI_UNKNOWN) {
+			entry.mRssi = rssi;
+		}
+		entry.mLastSeen = now;
+
+		if (change != UNCHANGED) {
+			entry.mReported = true;
+			this.mChanged.put(address, entry);
+		}
+
+		return change;
+	}
+
+	public synchronized void setInfo(String address, JSONObject info) {
+		Entry entry = this.mEntries.get(address);
+		if (entry != null) {
+			entry.mInfo = info;
+		}
+	}
+
+	public synchronized JSONArray takeChanged() throws JSONException {
+		JSONArray devices = new JSONArray();
+
+		for (Entry entry : this.mChanged.values()) {
+			if (entry.mInfo == null) {
+				continue;
+			}
+
+			entry.mInfo.put("deviceClass", entry.mDeviceClass);
+			entry.mInfo.put("lastSeen", entry.mLastSeen);
+			if (entry.mRssi != RSSI_UNKNOWN) {
+				entry.mInfo.put("rssi", entry.mRssi);
+			}
+			devices.put(entry.mInfo);
+		}
+		this.mChanged.clear();
+
+		return devices;
+	}
+
+	public synchronized void expire(long now) {
+		Iterator<Entry> iterator = this.mEntries.values().iterator();
+		Entry entry;
+
+		while (iterator.hasNext()) {
+			entry = iterator.next();
+			if (now - entry.mLastSeen > this.mTtl) {
+				iterator.remove();
+				this.mChanged.remove(entry.mAddress);
+			}
+		}
+	}
+
+	public synchronized void resetReported() {
+		for (Entry entry : this.mEntries.values()) {
+			entry.mReported = false;
+		}
+	}
+}
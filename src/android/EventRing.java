@@ -0,0 +1,149 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import android.util.Log;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// The plugin results of the events, published by any thread and sent to the bridge by a single dispatcher thread,
+// in the order in which they have been published.
+// The slots are allocated once. A producer claims a sequence number, fills the slot of the sequence, and then
+// publishes it by storing the sequence number in the slot, so that publishing never takes a lock.
+public class EventRing implements Runnable {
+	public static final long BATCH_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	public int mMask;
+	public CallbackContext[] mContexts;
+	public PluginResult[] mResults;
+	// The sequence number published in each slot
+	public AtomicLongArray mPublished;
+	// The next sequence number to claim
+	public AtomicLong mNext = new AtomicLong(0);
+	// The next sequence number to dispatch, written only by the dispatcher
+	public volatile long mDispatched = 0;
+	// When greater than 0, the dispatcher waits up to mBatchDelay milliseconds after the first event,
+	// so that a burst of events reaches the bridge together
+	public volatile int mBatchDelay = 0;
+	public volatile boolean mParked = false;
+	public volatile boolean mClosed = false;
+	public Thread mThread;
+
+	// The capacity must be a power of 2
+	public EventRing(int capacity, ThreadFactory threadFactory) {
+		this.mMask = capacity - 1;
+		this.mContexts = new CallbackContext[capacity];
+		this.mResults = new PluginResult[capacity];
+		this.mPublished = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			this.mPublished.set(i, -1);
+		}
+
+		this.mThread = threadFactory.newThread(this);
+		this.mThread.start();
+	}
+
+	// When the ring is full, waits for the dispatcher to free a slot
+	public void publish(CallbackContext context, PluginResult result) {
+		long sequence = this.mNext.getAndIncrement();
+		int index = (int) sequence & this.mMask;
+
+		while ((sequence - this.mDispatched > this.mMask) && !this.mClosed) {
+			LockSupport.parkNanos(1000);
+		}
+
+		this.mContexts[index] = context;
+		this.mResults[index] = result;
+		this.mPublished.set(index, sequence);
+
+		if (this.mParked) {
+			LockSupport.unpark(this.mThread);
+		}
+	}
+
+	public void run() {
+		long sequence = this.mDispatched;
+		int index;
+
+		while (!this.mClosed) {
+			index = (int) sequence & this.mMask;
+
+			if (this.mPublished.get(index) != sequence) {
+				// The ring is empty, so the dispatcher sleeps until a producer wakes it up.
+				// A producer checks mParked after publishing, and the dispatcher checks the slot again
+				// after setting mParked, so that at least one of them sees the other, and no wake up is lost.
+				this.mParked = true;
+				if (this.mPublished.get(index) != sequence) {
+					LockSupport.park(this);
+				}
+				this.mParked = false;
+
+				if ((this.mBatchDelay > 0) && (this.mPublished.get(index) == sequence)) {
+					this.waitForBatch(sequence);
+				}
+				continue;
+			}
+
+			this.dispatch(index);
+			sequence++;
+			this.mDispatched = sequence;
+		}
+	}
+
+	// Waits until the ring is half full, or for mBatchDelay milliseconds.
+	// The producers do not wake up the dispatcher meanwhile, so that it checks the ring every BATCH_CHECK_NANOS.
+	public void waitForBatch(long sequence) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.mBatchDelay);
+		long remaining;
+
+		while (!this.mClosed && (this.mNext.get() - sequence <= this.mMask / 2) && ((remaining = deadline - System.nanoTime()) > 0)) {
+			LockSupport.parkNanos(this, Math.min(remaining, BATCH_CHECK_NANOS));
+		}
+	}
+
+	public void dispatch(int index) {
+		CallbackContext context = this.mContexts[index];
+		PluginResult result = this.mResults[index];
+
+		// Release the references, so that the results do not stay in memory until the slot is reused
+		this.mContexts[index] = null;
+		this.mResults[index] = null;
+
+		// The events with no registered callback are dropped
+		if (context == null) {
+			return;
+		}
+
+		try {
+			context.sendPluginResult(result);
+		} catch (RuntimeException e) {
+			// A failing callback must not stop the events of the other callbacks
+			Log.e(NetworkingBluetooth.TAG, "sendPluginResult", e);
+		}
+	}
+
+	// The events not yet dispatched are dropped
+	public void close() {
+		this.mClosed = true;
+		LockSupport.unpark(this.mThread);
+	}
+}
@@ -0,0 +1,194 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.io.IOException;
+
+// Splits the data read from a socket into application messages, and adds the framing
+// to the messages sent, either as a big endian length prefix of 2 or 4 bytes,
+// or as a delimiter byte after each message.
+public class FrameCodec {
+	public static final int LENGTH_PREFIX = 0;
+	public static final int DELIMITER = 1;
+	public static final int DEFAULT_MAX_FRAME_SIZE = 65536;
+
+	public interface FrameListener {
+		public void onFrame(byte[] buffer, int offset, int length) throws IOException;
+	}
+
+	public int mType;
+	public int mLengthSize;
+	public byte mDelimiter;
+	public int mMaxFrameSize;
+	// The partial frame that is waiting for the rest of its data
+	public byte[] mPending;
+	public int mPendingLength = 0;
+
+	public FrameCodec(int type, int lengthSize, int delimiter, int maxFrameSize) {
+		if ((type == LENGTH_PREFIX) && (lengthSize != 2) && (lengthSize != 4)) {
+			throw new IllegalArgumentException("Invalid length size: " + lengthSize);
+		}
+
+		this.mType = type;
+		this.mLengthSize = lengthSize;
+		this.mDelimiter = (byte) delimiter;
+		this.mMaxFrameSize = maxFrameSize;
+		this.mPending = new byte[Math.min(maxFrameSize, 4096) + lengthSize];
+	}
+
+	// Drops the partial frame, when the data that would complete it has been lost
+	public void reset() {
+		this.mPendingLength = 0;
+	}
+
+	public void decode(byte[] data, int offset, int length, FrameListener listener) throws IOException {
+		if (this.mType == LENGTH_PREFIX) {
+			this.decodeLengthPrefix(data, offset, length, listener);
+		} else {
+			this.decodeDelimiter(data, offset, length, listener);
+		}
+	}
+
+	public void decodeLengthPrefix(byte[] data, int offset, int length, FrameListener listener) throws IOException {
+		int frameLength;
+		int needed;
+
+		while (length > 0) {
+			// Whole frames are delivered straight from the data
+			if ((this.mPendingLength == 0) && (length >= this.mLengthSize)) {
+				frameLength = this.readLength(data, offset);
+				if (length >= this.mLengthSize + frameLength) {
+					listener.onFrame(data, offset + this.mLengthSize, frameLength);
+					offset += this.mLengthSize + frameLength;
+					length -= this.mLengthSize + frameLength;
+					continue;
+				}
+			}
+
+			if (this.mPendingLength < this.mLengthSize) {
+				needed = this.mLengthSize - this.mPendingLength;
+			} else {
+				needed = this.mLengthSize + this.readLength(this.mPending, 0) - this.mPendingLength;
+			}
+
+			needed = Math.min(needed, length);
+			this.append(data, offset, needed);
+			offset += needed;
+			length -= needed;
+
+			if (this.mPendingLength >= this.mLengthSize) {
+				frameLength = this.readLength(this.mPending, 0);
+				if (this.mPendingLength == this.mLengthSize + frameLength) {
+					listener.onFrame(this.mPending, this.mLengthSize, frameLength);
+					this.mPendingLength = 0;
+				}
+			}
+		}
+	}
+
+	public void decodeDelimiter(byte[] data, int offset, int length, FrameListener listener) throws IOException {
+		int start = offset;
+		int end = offset + length;
+
+		for (int i = offset; i < end; i++) {
+			if (data[i] == this.mDelimiter) {
+				if (this.mPendingLength == 0) {
+					if (i - start > this.mMaxFrameSize) {
+						throw new IOException("Frame too large");
+					}
+					listener.onFrame(data, start, i - start);
+				} else {
+					this.append(data, start, i - start);
+					listener.onFrame(this.mPending, 0, this.mPendingLength);
+					this.mPendingLength = 0;
+				}
+				start = i + 1;
+			}
+		}
+
+		this.append(data, start, end - start);
+	}
+
+	public int readLength(byte[] buffer, int offset) throws IOException {
+		int frameLength;
+
+		if (this.mLengthSize == 2) {
+			frameLength = ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+		} else {
+			frameLength = ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+		}
+
+		if ((frameLength < 0) || (frameLength > this.mMaxFrameSize)) {
+			throw new IOException("Frame too large");
+		}
+
+		return frameLength;
+	}
+
+	public void append(byte[] data, int offset, int length) throws IOException {
+		int newLength = this.mPendingLength + length;
+
+		if (newLength > this.mMaxFrameSize + this.mLengthSize) {
+			throw new IOException("Frame too large");
+		}
+
+		if (newLength > this.mPending.length) {
+			byte[] pending = new byte[Math.min(Math.max(newLength, this.mPending.length * 2), this.mMaxFrameSize + this.mLengthSize)];
+			System.arraycopy(this.mPending, 0, pending, 0, this.mPendingLength);
+			this.mPending = pending;
+		}
+
+		System.arraycopy(data, offset, this.mPending, this.mPendingLength, length);
+		this.mPendingLength = newLength;
+	}
+
+	public byte[] encode(byte[] data) throws IOException {
+		byte[] frame;
+
+		if (data.length > this.mMaxFrameSize) {
+			throw new IOException("Frame too large");
+		}
+
+		if (this.mType == LENGTH_PREFIX) {
+			frame = new byte[this.mLengthSize + data.length];
+			if (this.mLengthSize == 2) {
+				if (data.length > 0xFFFF) {
+					throw new IOException("Frame too large");
+				}
+				frame[0] = (byte) (data.length >> 8);
+				frame[1] = (byte) data.length;
+			} else {
+				frame[0] = (byte) (data.length >> 24);
+				frame[1] = (byte) (data.length >> 16);
+				frame[2] = (byte) (data.length >> 8);
+				frame[3] = (byte) data.length;
+			}
+			System.arraycopy(data, 0, frame, this.mLengthSize, data.length);
+		} else {
+			// The peer would split the message at the delimiter
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] == this.mDelimiter) {
+					throw new IOException("Message contains the delimiter");
+				}
+			}
+
+			frame = new byte[data.length + 1];
+			System.arraycopy(data, 0, frame, 0, data.length);
+			frame[data.length] = this.mDelimiter;
+		}
+
+		return frame;
+	}
+}
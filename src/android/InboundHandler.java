@@ -0,0 +1,43 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.io.IOException;
+
+// Sees the data received by a socket before JavaScript, so that the protocols that need a fixed response
+// can be handled natively. The handlers are registered by name with NetworkingBluetooth.registerInboundHandler,
+// and attached to the sockets with the inboundHandler option of connect and listenUsingRfcomm.
+public interface InboundHandler {
+	public interface Factory {
+		// Called once for each socket, so that the handler can keep the state of the socket
+		public InboundHandler create();
+	}
+
+	// The socket, as seen by the handler
+	public interface Context {
+		public int getSocketId();
+		// Queues the data in the send queue of the socket, as the send action does
+		public void send(byte[] data);
+		// Delivers the data to the onReceive event
+		public void forward(byte[] buffer, int offset, int length);
+	}
+
+	// Called in the read loop thread, for each chunk of data or for each message when framing is used.
+	// Returns true to deliver the data to the onReceive event. An IOException closes the socket.
+	public boolean onReceive(Context context, byte[] buffer, int offset, int length) throws IOException;
+
+	// Called in the read loop thread, when the socket has been closed
+	public void onClose(Context context);
+}
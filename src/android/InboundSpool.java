@@ -0,0 +1,227 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+// The data and the errors received by a socket while they can not be delivered to JavaScript, in order.
+// The records are held in memory up to the memory limit, and then they are written to a file.
+public class InboundSpool {
+	public static class Record {
+		// Either the data, or the error message
+		public byte[] mData;
+		public String mErrorMessage;
+
+		public Record(byte[] data, String errorMessage) {
+			this.mData = data;
+			this.mErrorMessage = errorMessage;
+		}
+	}
+
+	public int mSocketId;
+	// The data of consecutive records can be joined when delivered, if the socket does not use framing
+	public boolean mCoalesce;
+	public int mMemoryLimit;
+	public long mMaxSize;
+	// The directory of the file, or null not to use a file
+	public File mDirectory;
+	// The records are read from mHead, then from the file, then from mTail
+	public ArrayDeque<Record> mHead = new ArrayDeque<Record>();
+	public ArrayDeque<Record> mTail = new ArrayDeque<Record>();
+	public int mMemorySize = 0;
+	// The number of bytes of data in the spool
+	public long mSize = 0;
+	public File mFile = null;
+	public DataOutputStream mFileOutput = null;
+	public DataInputStream mFileInput = null;
+	public int mFileRecords = 0;
+	// Set when the file can not be written, so that the records stay in memory
+	public boolean mFileFailed = false;
+	public boolean mClosed = false;
+
+	public InboundSpool(int socketId, boolean coalesce, int memoryLimit, long maxSize, File directory) {
+		this.mSocketId = socketId;
+		this.mCoalesce = coalesce;
+		this.mMemoryLimit = memoryLimit;
+		this.mMaxSize = maxSize;
+		this.mDirectory = directory;
+	}
+
+	// Returns false if the spool has been closed
+	public synchronized boolean add(byte[] buffer, int offset, int length) {
+		if (this.mClosed) {
+			return false;
+		}
+
+		byte[] data = new byte[length];
+		System.arraycopy(buffer, offset, data, 0, length);
+		this.addRecord(new Record(data, null));
+		this.mSize += length;
+		return true;
+	}
+
+	// Returns false if the spool has been closed
+	public synchronized boolean addError(String errorMessage) {
+		if (this.mClosed) {
+			return false;
+		}
+
+		this.addRecord(new Record(null, errorMessage));
+		return true;
+	}
+
+	public void addRecord(Record record) {
+		int length = (record.mData != null) ? record.mData.length : 0;
+
+		if ((this.mFileRecords == 0) && this.mTail.isEmpty() && (this.mMemorySize + length <= this.mMemoryLimit)) {
+			this.mHead.addLast(record);
+			this.mMemorySize += length;
+			return;
+		}
+
+		if (!this.mFileFailed && this.mTail.isEmpty() && (this.mDirectory != null)) {
+			try {
+				this.writeRecord(record);
+				return;
+			} catch (IOException e) {
+				this.mFileFailed = true;
+			}
+		}
+
+		this.mTail.addLast(record);
+		this.mMemorySize += length;
+	}
+
+	public void writeRecord(Record record) throws IOException {
+		if (this.mFileOutput == null) {
+			this.mDirectory.mkdirs();
+			this.mFile = File.createTempFile("spool-" + this.mSocketId + "-", ".bin", this.mDirectory);
+			this.mFileOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.mFile)));
+		}
+
+		if (record.mData != null) {
+			this.mFileOutput.writeInt(record.mData.length);
+			this.mFileOutput.write(record.mData);
+		} else {
+			this.mFileOutput.writeInt(-1);
+			this.mFileOutput.writeUTF(record.mErrorMessage);
+		}
+		this.mFileRecords++;
+	}
+
+	// Returns null when the spool is empty
+	public synchronized Record poll() throws IOException {
+		Record record = this.mHead.pollFirst();
+
+		if ((record == null) && (this.mFileRecords > 0)) {
+			record = this.readRecord();
+			this.mFileRecords--;
+			if (this.mFileRecords == 0) {
+				// The records that could not be written to the file come next
+				this.deleteFile();
+				ArrayDeque<Record> head = this.mHead;
+				this.mHead = this.mTail;
+				this.mTail = head;
+			}
+			if (record.mData != null) {
+				this.mSize -= record.mData.length;
+			}
+			return record;
+		}
+
+		if (record == null) {
+			record = this.mTail.pollFirst();
+		}
+
+		if ((record != null) && (record.mData != null)) {
+			this.mMemorySize -= record.mData.length;
+			this.mSize -= record.mData.length;
+		}
+
+		return record;
+	}
+
+	public Record readRecord() throws IOException {
+		if (this.mFileInput == null) {
+			this.mFileInput = new DataInputStream(new BufferedInputStream(new FileInputStream(this.mFile)));
+		}
+
+		// The records may still be in the buffer of the output stream
+		this.mFileOutput.flush();
+
+		int length = this.mFileInput.readInt();
+		if (length < 0) {
+			return new Record(null, this.mFileInput.readUTF());
+		}
+
+		byte[] data = new byte[length];
+		this.mFileInput.readFully(data);
+		return new Record(data, null);
+	}
+
+	public synchronized boolean isFull() {
+		return (this.mSize >= this.mMaxSize);
+	}
+
+	// Closes the spool only if it is empty, so that the records added after it are delivered straight away
+	public synchronized boolean closeIfEmpty() {
+		if (!this.mHead.isEmpty() || (this.mFileRecords > 0) || !this.mTail.isEmpty()) {
+			return false;
+		}
+
+		this.close();
+		return true;
+	}
+
+	// Drops the records left in the spool
+	public synchronized void close() {
+		this.mClosed = true;
+		this.mHead.clear();
+		this.mTail.clear();
+		this.mMemorySize = 0;
+		this.mSize = 0;
+		this.mFileRecords = 0;
+		this.deleteFile();
+	}
+
+	public void deleteFile() {
+		if (this.mFileOutput != null) {
+			try {
+				this.mFileOutput.close();
+			} catch (IOException e) {}
+			this.mFileOutput = null;
+		}
+
+		if (this.mFileInput != null) {
+			try {
+				this.mFileInput.close();
+			} catch (IOException e) {}
+			this.mFileInput = null;
+		}
+
+		if (this.mFile != null) {
+			this.mFile.delete();
+			this.mFile = null;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// An in-memory stand-in for Bluetooth, where connect reaches the listener of the same uuid
+// (or of the same psm, for the L2CAP types) in the same process, and the address is ignored.
+// The secure and insecure types behave the same.
+// Each direction of a connection is a bounded pipe, so that a reader that does not read
+// stops the writer, like the RFCOMM flow control does.
+public class LoopbackTransport implements Transport {
+	public static final String ADDRESS = "00:00:00:00:00:00";
+	public static final int PIPE_BUFFER_SIZE = 65536;
+	// The first of the dynamic psms, that are odd
+	public static final int FIRST_DYNAMIC_PSM = 0x1001;
+
+	public static class Pipe {
+		public byte[] mBuffer;
+		public int mReadPos = 0;
+		public int mCount = 0;
+		public boolean mWriteClosed = false;
+		public boolean mReadClosed = false;
+
+		public Pipe(int size) {
+			this.mBuffer = new byte[size];
+		}
+
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			while ((this.mCount == 0) && !this.mWriteClosed && !this.mReadClosed) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+			}
+
+			if (this.mReadClosed) {
+				throw new IOException("Socket closed");
+			}
+
+			if (this.mCount == 0) {
+				// The write side has been closed, and all the data has been read
+				return -1;
+			}
+
+			int bytesRead = Math.min(len, this.mCount);
+			int firstPart = Math.min(bytesRead, this.mBuffer.length - this.mReadPos);
+			System.arraycopy(this.mBuffer, this.mReadPos, b, off, firstPart);
+			System.arraycopy(this.mBuffer, 0, b, off + firstPart, bytesRead - firstPart);
+			this.mReadPos = (this.mReadPos + bytesRead) % this.mBuffer.length;
+			this.mCount -= bytesRead;
+			this.notifyAll();
+
+			return bytesRead;
+		}
+
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				while ((this.mCount == this.mBuffer.length) && !this.mReadClosed && !this.mWriteClosed) {
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted");
+					}
+				}
+
+				if (this.mWriteClosed) {
+					throw new IOException("Socket closed");
+				}
+
+				if (this.mReadClosed) {
+					throw new IOException("Broken pipe");
+				}
+
+				int writePos = (this.mReadPos + this.mCount) % this.mBuffer.length;
+				int bytesWritten = Math.min(len, this.mBuffer.length - this.mCount);
+				int firstPart = Math.min(bytesWritten, this.mBuffer.length - writePos);
+				System.arraycopy(b, off, this.mBuffer, writePos, firstPart);
+				System.arraycopy(b, off + firstPart, this.mBuffer, 0, bytesWritten - firstPart);
+				this.mCount += bytesWritten;
+				off += bytesWritten;
+				len -= bytesWritten;
+				this.notifyAll();
+			}
+		}
+
+		public synchronized int available() {
+			return this.mCount;
+		}
+
+		public synchronized void closeRead() {
+			this.mReadClosed = true;
+			this.notifyAll();
+		}
+
+		public synchronized void closeWrite() {
+			this.mWriteClosed = true;
+			this.notifyAll();
+		}
+	}
+
+	public static class LoopbackConnection implements Transport.Connection {
+		public Pipe mInput;
+		public Pipe mOutput;
+		public volatile boolean mClosed = false;
+
+		public InputStream mInputStream = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return mInput.read(b, off, len);
+			}
+
+			@Override
+			public int available() {
+				return mInput.available();
+			}
+		};
+
+		public OutputStream mOutputStream = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				mOutput.write(b, off, len);
+			}
+		};
+
+		public LoopbackConnection(Pipe input, Pipe output) {
+			this.mInput = input;
+			this.mOutput = output;
+		}
+
+		public InputStream getInputStream() {
+			return this.mInputStream;
+		}
+
+		public OutputStream getOutputStream() {
+			return this.mOutputStream;
+		}
+
+		public boolean isConnected() {
+			return !this.mClosed;
+		}
+
+		public String getAddress() {
+			return ADDRESS;
+		}
+
+		public void close() {
+			this.mClosed = true;
+			this.mInput.closeRead();
+			this.mOutput.closeWrite();
+		}
+	}
+
+	public class LoopbackListener implements Transport.Listener {
+		// Either the uuid, or the psm of the listener
+		public Object mKey;
+		public int mPsm;
+		public LinkedBlockingQueue<LoopbackConnection> mPending = new LinkedBlockingQueue<LoopbackConnection>();
+		// Queued by close in order to wake up accept
+		public final LoopbackConnection mCloseMarker = new LoopbackConnection(null, null);
+		public volatile boolean mClosed = false;
+
+		public LoopbackListener(Object key, int psm) {
+			this.mKey = key;
+			this.mPsm = psm;
+		}
+
+		public Transport.Connection accept() throws IOException {
+			if (this.mClosed) {
+				return null;
+			}
+
+			try {
+				LoopbackConnection connection = this.mPending.take();
+				return (connection == this.mCloseMarker) ? null : connection;
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+		}
+
+		public int getPsm() {
+			return this.mPsm;
+		}
+
+		public void close() {
+			this.mClosed = true;
+			mListeners.remove(this.mKey, this);
+			this.mPending.offer(this.mCloseMarker);
+		}
+	}
+
+	public ConcurrentHashMap<Object, LoopbackListener> mListeners = new ConcurrentHashMap<Object, LoopbackListener>();
+	public AtomicInteger mNextPsm = new AtomicInteger(FIRST_DYNAMIC_PSM);
+
+	public Transport.Connection connect(Transport.ConnectAttempt attempt) throws IOException {
+		attempt.setSocket(null);
+
+		LoopbackListener listener = this.mListeners.get(isL2cap(attempt.mType) ? (Object) attempt.mPsm : attempt.mUuid);
+		if ((listener == null) || listener.mClosed) {
+			throw new IOException("Connection refused");
+		}
+
+		Pipe clientToServer = new Pipe(PIPE_BUFFER_SIZE);
+		Pipe serverToClient = new Pipe(PIPE_BUFFER_SIZE);
+		listener.mPending.offer(new LoopbackConnection(clientToServer, serverToClient));
+
+		return new LoopbackConnection(serverToClient, clientToServer);
+	}
+
+	public Transport.Listener listen(String name, UUID uuid, int type) throws IOException {
+		LoopbackListener listener;
+
+		if (isL2cap(type)) {
+			int psm = this.mNextPsm.getAndAdd(2);
+			listener = new LoopbackListener(psm, psm);
+			this.mListeners.put(psm, listener);
+			return listener;
+		}
+
+		listener = new LoopbackListener(uuid, -1);
+		if (this.mListeners.putIfAbsent(uuid, listener) != null) {
+			throw new IOException("Address already in use");
+		}
+
+		return listener;
+	}
+
+	public static boolean isL2cap(int type) {
+		return (type == Transport.TYPE_L2CAP) || (type == Transport.TYPE_L2CAP_INSECURE);
+	}
+}
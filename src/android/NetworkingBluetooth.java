@@ -27,9 +27,8 @@ import org.json.JSONObject;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -39,53 +38,356 @@ import android.Manifest;
 import android.os.ParcelUuid;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class NetworkingBluetooth extends CordovaPlugin {
 	public static final String TAG = "CordovaNetworkingBluetooth";
-	public static final String SERVICE_NAME = "CordovaNetworkingBluetooth";
+	// Kept for the apps that refer to it
+	public static final String SERVICE_NAME = Transport.SERVICE_NAME;
 	public static final int REQUEST_ENABLE_BT = 1773;
 	public static final int REQUEST_DISCOVERABLE_BT = 1885;
 	public static final int START_DISCOVERY_REQ_CODE = 1997;
 	public static final int READ_BUFFER_SIZE = 4096;
+	public static final int MAX_READ_BUFFER_SIZE = 1048576;
+	public static final long MAX_POOLED_BYTES = 1048576;
+	public static final int SEND_QUEUE_CAPACITY = 1024;
+	public static final int MAX_GATHER_SIZE = 65536;
+	// The bulk data is written in chunks, so that the control data waits at most for the write of a chunk
+	public static final int BULK_CHUNK_SIZE = 4096;
+	public static final int DEFAULT_RECEIVE_BATCH_DELAY = 2;
+	public static final int MAX_RECEIVE_BATCH_DELAY = 1000;
+	public static final int DEFAULT_SEND_HIGH_WATER_MARK = 1048576;
+	public static final int DEFAULT_SEND_LOW_WATER_MARK = 262144;
+	public static final String TRANSPORT_PREFERENCE = "NetworkingBluetoothTransport";
+	public static final String MAX_IO_THREADS_PREFERENCE = "NetworkingBluetoothMaxIoThreads";
+	// Each client socket uses 2 threads, and each server socket uses 1 thread
+	public static final int DEFAULT_MAX_IO_THREADS = 64;
+	public static final int IO_THREAD_KEEP_ALIVE = 30;
+	// The receive envelope packs the data of all the sockets in a single ArrayBuffer. Each record has
+	// an 8 bytes header: the socketId (4 bytes), the flags (1 byte) and the length (3 bytes), all big endian.
+	public static final String RECEIVE_ENVELOPE_PREFERENCE = "NetworkingBluetoothReceiveEnvelope";
+	public static final int RECEIVE_ENVELOPE_SIZE = 65536;
+	public static final int RECEIVE_ENVELOPE_DELAY = 2;
+	public static final int RECEIVE_ENVELOPE_HEADER_SIZE = 8;
+	public static final int MAX_RECEIVE_ENVELOPE_RECORD_LENGTH = RECEIVE_ENVELOPE_SIZE - RECEIVE_ENVELOPE_HEADER_SIZE;
+	public static final int DEFAULT_RECONNECT_MAX_ATTEMPTS = 10;
+	public static final int DEFAULT_RECONNECT_DELAY = 250;
+	public static final int DEFAULT_RECONNECT_MAX_DELAY = 8000;
+	public static final int COMPRESSION_DISABLED = -2;
+	// The files are sent in chunks of the size of a gathered write, with a few chunks queued at a time
+	public static final int FILE_CHUNK_SIZE = MAX_GATHER_SIZE;
+	public static final int FILE_CHUNKS_IN_FLIGHT = 4;
+	public static final int FILE_PROGRESS_INTERVAL = 65536;
+	// The devices found by the discovery are sent in batches, at most every DEVICE_ADDED_BATCH_DELAY milliseconds
+	public static final int DEVICE_ADDED_BATCH_DELAY = 250;
+	public static final long DEVICE_TTL = 60000;
+	public static final int DEVICE_RSSI_THRESHOLD = 5;
+	// While the WebView is paused, the received data of each socket is held in memory up to SPOOL_MEMORY_SIZE bytes,
+	// then in a file in the cache directory. Past the background buffer size, the read loop stops reading.
+	public static final String BACKGROUND_BUFFER_SIZE_PREFERENCE = "NetworkingBluetoothBackgroundBufferSize";
+	public static final long DEFAULT_BACKGROUND_BUFFER_SIZE = 16777216;
+	public static final int SPOOL_MEMORY_SIZE = 262144;
+	public static final String SPOOL_DIRECTORY = "NetworkingBluetooth";
+	// On resume, each socket delivers at most SPOOL_DRAIN_SIZE bytes every SPOOL_DRAIN_INTERVAL milliseconds,
+	// in onReceive events of up to SPOOL_DRAIN_BATCH_SIZE bytes when the socket does not use framing
+	public static final int SPOOL_DRAIN_SIZE = 65536;
+	public static final int SPOOL_DRAIN_INTERVAL = 16;
+	public static final int SPOOL_DRAIN_BATCH_SIZE = 16384;
+	// The events are sent to the bridge in order by a single thread. The size of the ring must be a power of 2.
+	public static final int EVENT_RING_SIZE = 4096;
+	public static final String EVENT_BATCH_DELAY_PREFERENCE = "NetworkingBluetoothEventBatchDelay";
+	// The open client and server sockets are capped by this preference, when it is greater than 0
+	public static final String MAX_SOCKETS_PREFERENCE = "NetworkingBluetoothMaxSockets";
+	// The reaper closes the idle sockets, and sends the keepalive probes
+	public static final int REAPER_INTERVAL = 250;
+	public static final String IDLE_TIMEOUT_REASON = "Idle timeout";
+	public static final String KEEPALIVE_FAILED_REASON = "Keepalive failed";
+	// The values of the type option, indexed by the Transport socket types
+	public static final String[] SOCKET_TYPES = {"rfcomm", "rfcommInsecure", "l2cap", "l2capInsecure"};
+
+	// The inbound handlers that can be attached to the sockets, by name
+	public static final ConcurrentHashMap<String, InboundHandler.Factory> INBOUND_HANDLERS = new ConcurrentHashMap<String, InboundHandler.Factory>();
+
+	// The actions that can work without a Bluetooth adapter, when a stand-in transport is used
+	public static final Set<String> TRANSPORT_ACTIONS = new HashSet<String>(Arrays.asList(
+		"registerReceive", "registerReceiveError", "registerDrain", "registerAccept", "registerAcceptError",
+		"connect", "cancelConnect", "close", "send", "sendToMany", "sendFile", "receiveToFile", "setPaused", "getInfo", "getSockets", "listenUsingRfcomm",
+		"startSelfTestResponder", "runSelfTest", "getResourceUsage"
+	));
 
 	public class SocketSendData {
 		public CallbackContext mCallbackContext;
-		public BluetoothSocket mSocket;
 		public byte[] mData;
+		public long mQueuedTime = 0;
+		public int mLane = SendQueue.NORMAL;
+		// The bytes already written, as the bulk data is written a chunk at a time
+		public int mOffset = 0;
+		// The chunks of a file are limited by their own window instead of the send high water mark,
+		// so that a file larger than the water mark is not failed halfway
+		public boolean mCheckWaterMark = true;
+
+		public SocketSendData(CallbackContext callbackContext, byte[] data) {
+			this.mCallbackContext = callbackContext;
+			this.mData = data;
+		}
+
+		// Called by the write loop once the data has been written.
+		// The results go through the event ring, like the events of the socket.
+		public void onSent() {
+			sendEvent(this.mCallbackContext, new PluginResult(PluginResult.Status.OK, this.mData.length));
+		}
+
+		public void onError(String errorMessage) {
+			sendEvent(this.mCallbackContext, new PluginResult(PluginResult.Status.ERROR, errorMessage));
+		}
+
+		// The length of the next write of this data
+		public int getWriteLength() {
+			int length = this.mData.length - this.mOffset;
+			return (this.mLane == SendQueue.BULK) ? Math.min(length, BULK_CHUNK_SIZE) : length;
+		}
+	}
+
+	// Collects the results of the sends of sendToMany, and reports them together once all are done
+	public class SendToMany {
+		public CallbackContext mCallbackContext;
+		public JSONObject[] mResults;
+		public int mPending;
+
+		public SendToMany(CallbackContext callbackContext, int count) {
+			this.mCallbackContext = callbackContext;
+			this.mResults = new JSONObject[count];
+			this.mPending = count;
+		}
+
+		public synchronized void done(int index, int socketId, int bytesSent, String errorMessage) {
+			try {
+				JSONObject result = new JSONObject();
+				result.put("socketId", socketId);
+				if (errorMessage != null) {
+					result.put("errorMessage", errorMessage);
+				} else {
+					result.put("bytesSent", bytesSent);
+				}
+				this.mResults[index] = result;
+			} catch (JSONException e) {}
+
+			this.mPending--;
+			if (this.mPending == 0) {
+				JSONArray results = new JSONArray();
+				for (JSONObject result : this.mResults) {
+					results.put(result);
+				}
+				sendEvent(this.mCallbackContext, new PluginResult(PluginResult.Status.OK, results));
+			}
+		}
+	}
 
-		public SocketSendData(CallbackContext callbackContext, BluetoothSocket socket, byte[] data) {
+	public class FileReceive {
+		public CallbackContext mCallbackContext;
+		public FileChannel mChannel;
+		public long mLength;
+		public long mReceived = 0;
+		public long mProgressReported = 0;
+		// After a write error, the rest of the file is read from the socket and discarded
+		public String mErrorMessage = null;
+
+		public FileReceive(CallbackContext callbackContext, FileChannel channel, long length) {
 			this.mCallbackContext = callbackContext;
+			this.mChannel = channel;
+			this.mLength = length;
+		}
+	}
+
+	public class ClientSocket implements InboundHandler.Context {
+		public int mSocketId;
+		// Replaced by a new connection when a supervised socket reconnects
+		public volatile Transport.Connection mSocket;
+		// The attempt that made the connection, or that is reconnecting. It is null for the accepted sockets.
+		public volatile Transport.ConnectAttempt mConnectAttempt = null;
+		public int mConnectTimeout = 0;
+		public int mType = Transport.TYPE_RFCOMM;
+		public int mBufferSize = READ_BUFFER_SIZE;
+		// Each socket has its own writer lane, so that a stalled peer blocks only its own queue
+		public SendQueue<SocketSendData> mSendQueue = new SendQueue<SocketSendData>(SEND_QUEUE_CAPACITY);
+		public volatile boolean mClosed = false;
+		public volatile boolean mPaused = false;
+		public final Object mPauseLock = new Object();
+		// The number of bytes queued for sending, and not yet written
+		public AtomicLong mBufferedAmount = new AtomicLong(0);
+		public long mSendHighWaterMark = DEFAULT_SEND_HIGH_WATER_MARK;
+		public long mSendLowWaterMark = DEFAULT_SEND_LOW_WATER_MARK;
+		// Set when the buffered amount reaches the high water mark, in order to send the drain event
+		public volatile boolean mDrainPending = false;
+		// Receive batching is disabled when mReceiveBatch is null
+		public byte[] mReceiveBatch = null;
+		public int mReceiveBatchLength = 0;
+		public int mReceiveBatchDelay = DEFAULT_RECEIVE_BATCH_DELAY;
+		public ScheduledFuture<?> mReceiveBatchFlush = null;
+		// Framing is disabled when mFrameCodec is null
+		public FrameCodec mFrameCodec = null;
+		// Compression is disabled when they are null. The Deflater belongs to the write loop,
+		// and the Inflater to the read loop, that release them when they end.
+		public Deflater mDeflater = null;
+		public Inflater mInflater = null;
+		// Grows as needed to hold the compressed data of a write
+		public byte[] mDeflateBuffer = null;
+		// Supervised sockets reconnect with exponential backoff, keeping their socketId and send queue
+		public boolean mReconnect = false;
+		public int mReconnectMaxAttempts = DEFAULT_RECONNECT_MAX_ATTEMPTS;
+		public int mReconnectDelay = DEFAULT_RECONNECT_DELAY;
+		public int mReconnectMaxDelay = DEFAULT_RECONNECT_MAX_DELAY;
+		public volatile boolean mReconnecting = false;
+		// Incremented under mPauseLock each time that mSocket is replaced
+		public volatile int mLinkGeneration = 0;
+		// Set by receiveToFile, and cleared by the read loop when the file has been received
+		public volatile FileReceive mFileReceive = null;
+		// Sees the received data before JavaScript, when it is not null
+		public InboundHandler mInboundHandler = null;
+		// The socket is reaped when nothing has been received for mIdleTimeout milliseconds, if it is greater than 0
+		public int mIdleTimeout = 0;
+		// mKeepAliveData is sent when nothing has been written for mKeepAliveInterval milliseconds, if it is not null
+		public int mKeepAliveInterval = 0;
+		public byte[] mKeepAliveData = null;
+		public volatile long mLastReceiveTime = System.currentTimeMillis();
+		public volatile long mLastWriteTime = System.currentTimeMillis();
+		// Reported by onReceiveError instead of the error of the read, when the reaper closes the socket
+		public volatile String mCloseReason = null;
+		public SocketMetrics mMetrics = new SocketMetrics();
+
+		public ClientSocket(int socketId, Transport.Connection socket) {
+			this.mSocketId = socketId;
 			this.mSocket = socket;
-			this.mData = data;
+		}
+
+		public int getSocketId() {
+			return this.mSocketId;
+		}
+
+		public void send(byte[] data) {
+			SocketSendData sendData = new SocketSendData(null, data) {
+				@Override
+				public void onSent() {
+				}
+
+				@Override
+				public void onError(String errorMessage) {
+					Log.e(TAG, "InboundHandler send -- " + errorMessage);
+				}
+			};
+
+			// The responses of the handlers are control traffic
+			sendData.mLane = SendQueue.CONTROL;
+			NetworkingBluetooth.this.send(this, sendData);
+		}
+
+		public void forward(byte[] buffer, int offset, int length) {
+			NetworkingBluetooth.this.forwardReceive(this, buffer, offset, length);
+		}
+	}
+
+	public class ServerSocket {
+		public int mSocketId;
+		public Transport.Listener mListener;
+		public String mUuid;
+		public int mType;
+		// The options of the accepted client sockets
+		public JSONObject mOptions;
+		// The connections to a self-test responder are served by SelfTest, instead of becoming client sockets
+		public boolean mSelfTest = false;
+		public SocketMetrics mMetrics = new SocketMetrics();
+
+		public ServerSocket(int socketId, Transport.Listener listener, String uuid, int type, JSONObject options) {
+			this.mSocketId = socketId;
+			this.mListener = listener;
+			this.mUuid = uuid;
+			this.mType = type;
+			this.mOptions = options;
 		}
 	}
 
 	public BluetoothAdapter mBluetoothAdapter = null;
 	public ConcurrentHashMap<Integer, CallbackContext> mContextForActivity = new ConcurrentHashMap<Integer, CallbackContext>();
 	public ConcurrentHashMap<Integer, CallbackContext> mContextForPermission = new ConcurrentHashMap<Integer, CallbackContext>();
-	public CallbackContext mContextForAdapterStateChanged = null;
-	public CallbackContext mContextForDeviceAdded = null;
-	public CallbackContext mContextForReceive = null;
-	public CallbackContext mContextForReceiveError = null;
-	public CallbackContext mContextForAccept = null;
-	public CallbackContext mContextForAcceptError = null;
+	public volatile CallbackContext mContextForAdapterStateChanged = null;
+	public volatile CallbackContext mContextForDeviceAdded = null;
+	public volatile CallbackContext mContextForReceive = null;
+	public volatile CallbackContext mContextForReceiveError = null;
+	public volatile CallbackContext mContextForDrain = null;
+	public volatile CallbackContext mContextForAccept = null;
+	public volatile CallbackContext mContextForAcceptError = null;
 	public CallbackContext mContextForEnable = null;
 	public CallbackContext mContextForDisable = null;
 	public boolean mDeviceAddedRegistered = false;
+	public boolean mUuidRegistered = false;
+	// The device info cache is used only while the receiver gets the changes of the devices
+	public boolean mDeviceInfoCacheEnabled = false;
+	public boolean mReceiverRegistered = false;
 	public int mPreviousScanMode = BluetoothAdapter.SCAN_MODE_NONE;
 	public AtomicInteger mSocketId = new AtomicInteger(1);
-	public ConcurrentHashMap<Integer, BluetoothSocket> mClientSockets = new ConcurrentHashMap<Integer, BluetoothSocket>();
-	public ConcurrentHashMap<Integer, BluetoothServerSocket> mServerSockets = new ConcurrentHashMap<Integer, BluetoothServerSocket>();
-	public LinkedBlockingQueue<SocketSendData> mSendQueue = new LinkedBlockingQueue<SocketSendData>();
+	public ConcurrentHashMap<Integer, ClientSocket> mClientSockets = new ConcurrentHashMap<Integer, ClientSocket>();
+	public ConcurrentHashMap<Integer, ServerSocket> mServerSockets = new ConcurrentHashMap<Integer, ServerSocket>();
+	public Transport mTransport = null;
+	public ConcurrentLinkedQueue<Transport.ConnectAttempt> mPendingConnects = new ConcurrentLinkedQueue<Transport.ConnectAttempt>();
+	// The connections of the self-tests in progress, on both the tester and the responder side
+	public ConcurrentLinkedQueue<Transport.Connection> mSelfTestConnections = new ConcurrentLinkedQueue<Transport.Connection>();
+	public ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor(newThreadFactory("NetworkingBluetooth-timer"));
+	public EventRing mEvents = new EventRing(EVENT_RING_SIZE, newThreadFactory("NetworkingBluetooth-events"));
+	// The blocking socket I/O runs here, instead of the thread pool shared by all the Cordova plugins
+	public ThreadPoolExecutor mIoExecutor = null;
+	public BufferPool mBufferPool = new BufferPool(MAX_POOLED_BYTES);
+	// The receive envelope is disabled when mReceiveEnvelope is null
+	public byte[] mReceiveEnvelope = null;
+	public int mReceiveEnvelopeLength = 0;
+	public ScheduledFuture<?> mReceiveEnvelopeFlush = null;
+	public final Object mReceiveEnvelopeLock = new Object();
+	public DeviceRegistry mDeviceRegistry = new DeviceRegistry(DEVICE_TTL, DEVICE_RSSI_THRESHOLD);
+	public ScheduledFuture<?> mDeviceAddedFlush = null;
+	public ConcurrentHashMap<String, JSONObject> mDeviceInfoCache = new ConcurrentHashMap<String, JSONObject>();
+	// Counts the invalidations of the cache, under the lock of mDeviceInfoCache, so that the info read
+	// before an invalidation is not cached after it
+	public long mDeviceInfoGeneration = 0;
+	public HashMap<String, ArrayList<CallbackContext>> mContextForFetchUuids = new HashMap<String, ArrayList<CallbackContext>>();
+	// Set while the WebView is paused
+	public volatile boolean mBackground = false;
+	// The spools of the sockets whose received data has not been delivered yet, by socketId
+	public ConcurrentHashMap<Integer, InboundSpool> mSpools = new ConcurrentHashMap<Integer, InboundSpool>();
+	public File mSpoolDirectory = null;
+	public long mBackgroundBufferSize = DEFAULT_BACKGROUND_BUFFER_SIZE;
+	public ScheduledFuture<?> mSpoolDrain = null;
+	public int mMaxSockets = 0;
+	public ScheduledFuture<?> mReaper = null;
 
 	@Override
 	public void initialize(CordovaInterface cordova, CordovaWebView webView) {
@@ -97,18 +399,153 @@ public class NetworkingBluetooth extends CordovaPlugin {
 			this.mPreviousScanMode = this.mBluetoothAdapter.getScanMode();
 		}
 
-		cordova.getThreadPool().execute(new Runnable() {
-			public void run() {
-				writeLoop();
+		// The stand-in transports allow to run the socket functions without Bluetooth
+		String transport = this.preferences.getString(TRANSPORT_PREFERENCE, "bluetooth");
+		if (transport.equals("loopback")) {
+			this.mTransport = new LoopbackTransport();
+		} else if (transport.equals("tcp")) {
+			this.mTransport = new TcpLoopbackTransport();
+		} else if (this.mBluetoothAdapter != null) {
+			this.mTransport = new BluetoothTransport(this.mBluetoothAdapter);
+		}
+
+		int maxIoThreads = Math.max(this.preferences.getInteger(MAX_IO_THREADS_PREFERENCE, DEFAULT_MAX_IO_THREADS), 2);
+		this.mIoExecutor = new ThreadPoolExecutor(0, maxIoThreads, IO_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), newThreadFactory("NetworkingBluetooth-io"));
+
+		if (this.preferences.getBoolean(RECEIVE_ENVELOPE_PREFERENCE, false)) {
+			this.mReceiveEnvelope = new byte[RECEIVE_ENVELOPE_SIZE];
+		}
+
+		this.mMaxSockets = Math.max(this.preferences.getInteger(MAX_SOCKETS_PREFERENCE, 0), 0);
+
+		this.mEvents.mBatchDelay = Math.max(this.preferences.getInteger(EVENT_BATCH_DELAY_PREFERENCE, 0), 0);
+
+		this.mBackgroundBufferSize = Math.max(this.preferences.getInteger(BACKGROUND_BUFFER_SIZE_PREFERENCE, (int) DEFAULT_BACKGROUND_BUFFER_SIZE), SPOOL_MEMORY_SIZE);
+		this.mSpoolDirectory = new File(cordova.getActivity().getCacheDir(), SPOOL_DIRECTORY);
+		// The files left by a previous run of the app
+		this.deleteSpoolFiles();
+	}
+
+	// The events go through the event ring, so that the I/O threads do not contend for the bridge,
+	// and the events of each socket reach JavaScript in the order in which they happened
+	public void sendEvent(CallbackContext callbackContext, PluginResult pluginResult) {
+		this.mEvents.publish(callbackContext, pluginResult);
+	}
+
+	public static ThreadFactory newThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + mThreadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
 			}
-		});
+		};
+	}
+
+	@Override
+	public void onPause(boolean multitasking) {
+		// The plugin results sent to a paused WebView would pile up, and arrive as a burst on resume
+		synchronized (this.mSpools) {
+			this.mBackground = true;
+			this.stopSpoolDrain();
+		}
+	}
+
+	@Override
+	public void onResume(boolean multitasking) {
+		synchronized (this.mSpools) {
+			this.mBackground = false;
+			if (!this.mSpools.isEmpty() && (this.mSpoolDrain == null)) {
+				this.mSpoolDrain = this.mScheduler.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						drainSpools();
+					}
+				}, 0, SPOOL_DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	@Override
+	public void onReset() {
+		// The page is being reloaded, so that nobody is left to use the sockets
+		this.closeAllSockets();
+		this.unregisterReceiver();
+		this.closeSpools();
+	}
+
+	@Override
+	public void onDestroy() {
+		this.closeAllSockets();
+		this.unregisterReceiver();
+		this.closeSpools();
+
+		// Stop the threads that are not blocked on a socket, like the paused read loops
+		if (this.mIoExecutor != null) {
+			this.mIoExecutor.shutdownNow();
+		}
+		this.mScheduler.shutdownNow();
+		this.mEvents.close();
+		this.mBufferPool.clear();
+	}
+
+	public void closeAllSockets() {
+		for (Transport.ConnectAttempt attempt : this.mPendingConnects) {
+			attempt.cancel("Connection cancelled");
+		}
+
+		for (ClientSocket clientSocket : this.mClientSockets.values()) {
+			if (this.mClientSockets.remove(clientSocket.mSocketId, clientSocket)) {
+				try {
+					this.closeClientSocket(clientSocket);
+				} catch (IOException e) {}
+			}
+		}
+
+		for (ServerSocket serverSocket : this.mServerSockets.values()) {
+			if (this.mServerSockets.remove(serverSocket.mSocketId, serverSocket)) {
+				try {
+					serverSocket.mListener.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		for (Transport.Connection connection : this.mSelfTestConnections) {
+			try {
+				connection.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	public void unregisterReceiver() {
+		if (this.mReceiverRegistered) {
+			try {
+				cordova.getActivity().unregisterReceiver(this.mReceiver);
+			} catch (IllegalArgumentException e) {}
+
+			this.mReceiverRegistered = false;
+			this.mDeviceAddedRegistered = false;
+			this.mUuidRegistered = false;
+			this.mDeviceInfoCacheEnabled = false;
+			this.invalidateDeviceInfo(null);
+		}
+	}
+
+	public void executeIo(CallbackContext callbackContext, Runnable runnable) {
+		try {
+			this.mIoExecutor.execute(runnable);
+		} catch (RejectedExecutionException e) {
+			callbackContext.error("Too many sockets");
+		}
 	}
 
 	@Override
 	public boolean execute(String action, CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
 		IntentFilter filter;
 
-		if (this.mBluetoothAdapter == null) {
+		if ((this.mBluetoothAdapter == null) && ((this.mTransport == null) || !TRANSPORT_ACTIONS.contains(action))) {
 			callbackContext.error("Device does not support Bluetooth");
 			return false;
 		}
@@ -121,7 +558,13 @@ public class NetworkingBluetooth extends CordovaPlugin {
 			filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
 			filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
 			filter.addAction(BluetoothAdapter.ACTION_SCAN_MODE_CHANGED);
+			filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+			filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+			filter.addAction(BluetoothDevice.ACTION_UUID);
 			cordova.getActivity().registerReceiver(this.mReceiver, filter);
+			this.mReceiverRegistered = true;
+			this.mUuidRegistered = true;
+			this.mDeviceInfoCacheEnabled = true;
 
 			return true;
 		} else if (action.equals("registerDeviceAdded")) {
@@ -133,6 +576,9 @@ public class NetworkingBluetooth extends CordovaPlugin {
 		} else if (action.equals("registerReceiveError")) {
 			this.mContextForReceiveError = callbackContext;
 			return true;
+		} else if (action.equals("registerDrain")) {
+			this.mContextForDrain = callbackContext;
+			return true;
 		} else if (action.equals("registerAccept")) {
 			this.mContextForAccept = callbackContext;
 			return true;
@@ -191,16 +637,42 @@ public class NetworkingBluetooth extends CordovaPlugin {
 		} else if (action.equals("getDevice")) {
 			String address = args.getString(0);
 			BluetoothDevice device = this.mBluetoothAdapter.getRemoteDevice(address);
-			callbackContext.success(this.getDeviceInfo(device));
+			callbackContext.success(this.getCachedDeviceInfo(device));
 			return true;
 		} else if (action.equals("getDevices")) {
 			Set<BluetoothDevice> devices = this.mBluetoothAdapter.getBondedDevices();
 			JSONArray deviceInfos = new JSONArray();
 			for (BluetoothDevice device : devices) {
-				deviceInfos.put(this.getDeviceInfo(device));
+				deviceInfos.put(this.getCachedDeviceInfo(device));
 			}
 			callbackContext.success(deviceInfos);
 			return true;
+		} else if (action.equals("fetchUuidsWithSdp")) {
+			String address = args.getString(0);
+			BluetoothDevice device = this.mBluetoothAdapter.getRemoteDevice(address);
+
+			if (!this.mUuidRegistered) {
+				filter = new IntentFilter(BluetoothDevice.ACTION_UUID);
+				cordova.getActivity().registerReceiver(this.mReceiver, filter);
+				this.mUuidRegistered = true;
+				this.mReceiverRegistered = true;
+			}
+
+			// The result is sent when the ACTION_UUID intent is received
+			synchronized (this.mContextForFetchUuids) {
+				ArrayList<CallbackContext> callbackContexts = this.mContextForFetchUuids.get(device.getAddress());
+				if (callbackContexts == null) {
+					callbackContexts = new ArrayList<CallbackContext>();
+					this.mContextForFetchUuids.put(device.getAddress(), callbackContexts);
+				}
+				callbackContexts.add(callbackContext);
+
+				if ((callbackContexts.size() == 1) && !device.fetchUuidsWithSdp()) {
+					this.mContextForFetchUuids.remove(device.getAddress());
+					callbackContext.error(0);
+				}
+			}
+			return true;
 		} else if (action.equals("startDiscovery")) {
 			// Automatically cancel any previous discovery
 			if (this.mBluetoothAdapter.isDiscovering()) {
@@ -232,27 +704,30 @@ public class NetworkingBluetooth extends CordovaPlugin {
 			return true;
 		} else if (action.equals("connect")) {
 			final String address = args.getString(0);
-			final String uuid = args.getString(1);
-			cordova.getThreadPool().execute(new Runnable() {
+			// The L2CAP types connect to the psm option instead of the uuid
+			final String uuid = args.isNull(1) ? null : args.getString(1);
+			final JSONObject options = args.optJSONObject(2);
+			this.executeIo(callbackContext, new Runnable() {
 				public void run() {
-					int socketId;
-					BluetoothSocket socket;
+					ClientSocket clientSocket;
+					Transport.ConnectAttempt attempt;
+					Transport.Connection socket;
 
 					try {
-						BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-						socket = device.createRfcommSocketToServiceRecord(UUID.fromString(uuid));
-
-						// Note: You should always ensure that the device is not performing
-						// device discovery when you call connect().
-						// If discovery is in progress, then the connection attempt will be
-						// significantly slowed and is more likely to fail.
-						mBluetoothAdapter.cancelDiscovery();
-
-						socket.connect();
-
-						socketId = mSocketId.getAndIncrement();
-						mClientSockets.put(socketId, socket);
-						callbackContext.success(socketId);
+						// Check the options before connecting
+						int type = getSocketType(options);
+						int psm = getPsm(options, type);
+						createFrameCodec(options);
+						getCompressionLevel(options);
+						getInboundHandlerFactory(options);
+						getKeepAliveData(options);
+
+						long connectStart = System.currentTimeMillis();
+						attempt = new Transport.ConnectAttempt(address, (psm > 0) ? null : UUID.fromString(uuid), type, psm);
+						socket = connectTransport(attempt, (options != null) ? options.optInt("connectTimeout", 0) : 0);
+						clientSocket = addClientSocket(socket, attempt, options);
+						clientSocket.mMetrics.mConnectDuration = System.currentTimeMillis() - connectStart;
+						callbackContext.success(clientSocket.mSocketId);
 					} catch (NullPointerException e) {
 						callbackContext.error(e.getMessage());
 						return;
@@ -265,27 +740,37 @@ public class NetworkingBluetooth extends CordovaPlugin {
 					}
 
 					// Now that the connection has been made, begin the read loop
-					readLoop(socketId, socket);
+					readLoop(clientSocket);
 				}
 			});
 			return true;
+		} else if (action.equals("cancelConnect")) {
+			String address = args.getString(0);
+			String uuid = args.isNull(1) ? null : args.getString(1);
+			for (Transport.ConnectAttempt attempt : this.mPendingConnects) {
+				if (attempt.mAddress.equalsIgnoreCase(address) && ((uuid == null) || ((attempt.mUuid != null) && attempt.mUuid.toString().equalsIgnoreCase(uuid)))) {
+					attempt.cancel("Connection cancelled");
+				}
+			}
+			callbackContext.success();
+			return true;
 		} else if (action.equals("close")) {
 			int socketId = args.getInt(0);
-			BluetoothSocket socket = this.mClientSockets.remove(socketId);
-			if (socket != null) {
+			ClientSocket clientSocket = this.mClientSockets.remove(socketId);
+			if (clientSocket != null) {
 				// The socketId refers to a client socket
 				try {
-					socket.close();
+					this.closeClientSocket(clientSocket);
 					callbackContext.success();
 				} catch (IOException e) {
 					callbackContext.error(e.getMessage());
 				}
 			} else {
-				BluetoothServerSocket serverSocket = this.mServerSockets.remove(socketId);
+				ServerSocket serverSocket = this.mServerSockets.remove(socketId);
 				if (serverSocket != null) {
 					// The socketId refers to a server socket
 					try {
-						serverSocket.close();
+						serverSocket.mListener.close();
 						callbackContext.success();
 					} catch (IOException e) {
 						callbackContext.error(e.getMessage());
@@ -299,30 +784,117 @@ public class NetworkingBluetooth extends CordovaPlugin {
 		} else if (action.equals("send")) {
 			int socketId = args.getInt(0);
 			byte[] data = args.getArrayBuffer(1);
-			BluetoothSocket socket = this.mClientSockets.get(socketId);
-			if (socket != null) {
-				try {
-					// The send operation occurs in a separate thread
-					this.mSendQueue.put(new SocketSendData(callbackContext, socket, data));
-				} catch (InterruptedException e) {
-					callbackContext.error(e.getMessage());
-				}
+			JSONObject options = args.optJSONObject(2);
+			ClientSocket clientSocket = this.mClientSockets.get(socketId);
+			SocketSendData sendData = new SocketSendData(callbackContext, data);
+			String priority = (options != null) ? options.optString("priority", "normal") : "normal";
+			if (priority.equals("control")) {
+				sendData.mLane = SendQueue.CONTROL;
+			} else if (priority.equals("bulk")) {
+				sendData.mLane = SendQueue.BULK;
+			} else if (!priority.equals("normal")) {
+				callbackContext.error("Invalid priority: " + priority);
+				return true;
+			}
+
+			if (clientSocket != null) {
+				this.send(clientSocket, sendData);
+			} else {
+				callbackContext.error("Invalid socketId");
+			}
+			return true;
+		} else if (action.equals("sendToMany")) {
+			JSONArray socketIds = args.getJSONArray(0);
+			// The data is decoded once, and shared by the send queues of all the sockets
+			byte[] data = args.getArrayBuffer(1);
+			this.sendToMany(socketIds, data, callbackContext);
+			return true;
+		} else if (action.equals("sendFile")) {
+			int socketId = args.getInt(0);
+			final String path = args.getString(1);
+			final ClientSocket clientSocket = this.mClientSockets.get(socketId);
+			if (clientSocket == null) {
+				callbackContext.error("Invalid socketId");
+			} else if (clientSocket.mFrameCodec != null) {
+				callbackContext.error("Files can not be sent with framing");
+			} else {
+				this.executeIo(callbackContext, new Runnable() {
+					public void run() {
+						sendFile(clientSocket, path, callbackContext);
+					}
+				});
+			}
+			return true;
+		} else if (action.equals("receiveToFile")) {
+			int socketId = args.getInt(0);
+			String path = args.getString(1);
+			long length = args.getLong(2);
+			ClientSocket clientSocket = this.mClientSockets.get(socketId);
+			if (clientSocket == null) {
+				callbackContext.error("Invalid socketId");
+			} else if (clientSocket.mFrameCodec != null) {
+				callbackContext.error("Files can not be received with framing");
+			} else {
+				this.receiveToFile(clientSocket, path, length, callbackContext);
+			}
+			return true;
+		} else if (action.equals("setPaused")) {
+			int socketId = args.getInt(0);
+			boolean paused = args.getBoolean(1);
+			ClientSocket clientSocket = this.mClientSockets.get(socketId);
+			if (clientSocket != null) {
+				this.setPaused(clientSocket, paused);
+				callbackContext.success();
+			} else {
+				callbackContext.error("Invalid socketId");
+			}
+			return true;
+		} else if (action.equals("getInfo")) {
+			int socketId = args.getInt(0);
+			ClientSocket clientSocket = this.mClientSockets.get(socketId);
+			ServerSocket serverSocket = this.mServerSockets.get(socketId);
+			if (clientSocket != null) {
+				callbackContext.success(this.getSocketInfo(clientSocket));
+			} else if (serverSocket != null) {
+				callbackContext.success(this.getServerSocketInfo(serverSocket));
 			} else {
 				callbackContext.error("Invalid socketId");
 			}
 			return true;
+		} else if (action.equals("getSockets")) {
+			JSONArray socketInfos = new JSONArray();
+			for (ClientSocket clientSocket : this.mClientSockets.values()) {
+				socketInfos.put(this.getSocketInfo(clientSocket));
+			}
+			for (ServerSocket serverSocket : this.mServerSockets.values()) {
+				socketInfos.put(this.getServerSocketInfo(serverSocket));
+			}
+			callbackContext.success(socketInfos);
+			return true;
+		} else if (action.equals("getResourceUsage")) {
+			callbackContext.success(this.getResourceUsage());
+			return true;
 		} else if (action.equals("listenUsingRfcomm")) {
-			final String uuid = args.getString(0);
-			cordova.getThreadPool().execute(new Runnable() {
+			// The uuid is not used by the L2CAP types, whose psm is reported by getInfo
+			final String uuid = args.isNull(0) ? null : args.getString(0);
+			final JSONObject options = args.optJSONObject(1);
+			this.executeIo(callbackContext, new Runnable() {
 				public void run() {
-					int serverSocketId;
-					BluetoothServerSocket serverSocket;
+					ServerSocket serverSocket;
 
 					try {
-						serverSocket = mBluetoothAdapter.listenUsingRfcommWithServiceRecord(SERVICE_NAME, UUID.fromString(uuid));
-						serverSocketId = mSocketId.getAndIncrement();
-						mServerSockets.put(serverSocketId, serverSocket);
-						callbackContext.success(serverSocketId);
+						// Check the options before listening
+						int type = getSocketType(options);
+						createFrameCodec(options);
+						getCompressionLevel(options);
+						getInboundHandlerFactory(options);
+						getKeepAliveData(options);
+
+						boolean l2cap = (type == Transport.TYPE_L2CAP) || (type == Transport.TYPE_L2CAP_INSECURE);
+						Transport.Listener listener = mTransport.listen(Transport.SERVICE_NAME, l2cap ? null : UUID.fromString(uuid), type);
+						serverSocket = new ServerSocket(mSocketId.getAndIncrement(), listener, l2cap ? null : uuid, type, options);
+						addServerSocket(serverSocket);
+						callbackContext.success(serverSocket.mSocketId);
 					} catch (NullPointerException e) {
 						callbackContext.error(e.getMessage());
 						return;
@@ -335,7 +907,81 @@ public class NetworkingBluetooth extends CordovaPlugin {
 					}
 
 					// Now that the server socket has been made, begin the accept loop
-					acceptLoop(serverSocketId, serverSocket);
+					acceptLoop(serverSocket);
+				}
+			});
+			return true;
+		} else if (action.equals("startSelfTestResponder")) {
+			final String uuid = args.isNull(0) ? null : args.getString(0);
+			final JSONObject options = args.optJSONObject(1);
+			this.executeIo(callbackContext, new Runnable() {
+				public void run() {
+					ServerSocket serverSocket;
+
+					try {
+						int type = getSocketType(options);
+						boolean l2cap = (type == Transport.TYPE_L2CAP) || (type == Transport.TYPE_L2CAP_INSECURE);
+						if (!l2cap && (uuid == null)) {
+							throw new IllegalArgumentException("Missing uuid");
+						}
+						Transport.Listener listener = mTransport.listen(Transport.SERVICE_NAME, l2cap ? null : UUID.fromString(uuid), type);
+						serverSocket = new ServerSocket(mSocketId.getAndIncrement(), listener, l2cap ? null : uuid, type, options);
+						serverSocket.mSelfTest = true;
+						addServerSocket(serverSocket);
+						callbackContext.success(serverSocket.mSocketId);
+					} catch (NullPointerException e) {
+						callbackContext.error(e.getMessage());
+						return;
+					} catch (IllegalArgumentException e) {
+						callbackContext.error(e.getMessage());
+						return;
+					} catch (IOException e) {
+						callbackContext.error(e.getMessage());
+						return;
+					}
+
+					acceptLoop(serverSocket);
+				}
+			});
+			return true;
+		} else if (action.equals("runSelfTest")) {
+			final String address = args.getString(0);
+			final String uuid = args.isNull(1) ? null : args.getString(1);
+			final JSONObject options = args.optJSONObject(2);
+			this.executeIo(callbackContext, new Runnable() {
+				public void run() {
+					Transport.Connection socket = null;
+
+					try {
+						int type = getSocketType(options);
+						int psm = getPsm(options, type);
+						if ((psm <= 0) && (uuid == null)) {
+							throw new IllegalArgumentException("Missing uuid");
+						}
+						SelfTest selfTest = new SelfTest(options);
+
+						long connectStart = System.currentTimeMillis();
+						Transport.ConnectAttempt attempt = new Transport.ConnectAttempt(address, (psm > 0) ? null : UUID.fromString(uuid), type, psm);
+						socket = connectTransport(attempt, (options != null) ? options.optInt("connectTimeout", 0) : 0);
+						long connectDuration = System.currentTimeMillis() - connectStart;
+						mSelfTestConnections.add(socket);
+
+						JSONObject results = selfTest.run(socket);
+						results.put("connectDuration", connectDuration);
+						callbackContext.success(results);
+					} catch (NullPointerException e) {
+						callbackContext.error(e.getMessage());
+					} catch (IllegalArgumentException e) {
+						callbackContext.error(e.getMessage());
+					} catch (IOException e) {
+						callbackContext.error(e.getMessage());
+					} catch (JSONException e) {
+						callbackContext.error(e.getMessage());
+					} finally {
+						if (socket != null) {
+							closeSelfTestConnection(socket);
+						}
+					}
 				}
 			});
 			return true;
@@ -358,11 +1004,11 @@ public class NetworkingBluetooth extends CordovaPlugin {
 
             pluginResult = new PluginResult(PluginResult.Status.OK, adapterState);
             pluginResult.setKeepCallback(keepCallback);
-            callbackContext.sendPluginResult(pluginResult);
+            this.sendEvent(callbackContext, pluginResult);
 		} catch (JSONException e) {
             pluginResult = new PluginResult(PluginResult.Status.ERROR, e.getMessage());
             pluginResult.setKeepCallback(keepCallback);
-            callbackContext.sendPluginResult(pluginResult);
+            this.sendEvent(callbackContext, pluginResult);
 		}
 	}
 
@@ -385,6 +1031,45 @@ public class NetworkingBluetooth extends CordovaPlugin {
 		return deviceInfo;
 	}
 
+	public JSONObject getCachedDeviceInfo(BluetoothDevice device) throws JSONException {
+		if (!this.mDeviceInfoCacheEnabled) {
+			return this.getDeviceInfo(device);
+		}
+
+		JSONObject deviceInfo = this.mDeviceInfoCache.get(device.getAddress());
+		if (deviceInfo != null) {
+			return deviceInfo;
+		}
+
+		long generation;
+		synchronized (this.mDeviceInfoCache) {
+			generation = this.mDeviceInfoGeneration;
+		}
+
+		// The info is read without the lock, as it may take a call to the Bluetooth service
+		deviceInfo = this.getDeviceInfo(device);
+
+		synchronized (this.mDeviceInfoCache) {
+			if (this.mDeviceInfoGeneration == generation) {
+				this.mDeviceInfoCache.put(device.getAddress(), deviceInfo);
+			}
+		}
+
+		return deviceInfo;
+	}
+
+	// Drops the info of a device, or of all the devices when the address is null
+	public void invalidateDeviceInfo(String address) {
+		synchronized (this.mDeviceInfoCache) {
+			this.mDeviceInfoGeneration++;
+			if (address != null) {
+				this.mDeviceInfoCache.remove(address);
+			} else {
+				this.mDeviceInfoCache.clear();
+			}
+		}
+	}
+
 	public void prepareActivity(String action, CordovaArgs args, CallbackContext callbackContext, Intent intent, int requestCode) {
 		// If there already is another activity with this request code, call the error callback in order
 		// to notify that the activity has been cancelled
@@ -452,19 +1137,41 @@ public class NetworkingBluetooth extends CordovaPlugin {
 					getAdapterState(mContextForAdapterStateChanged, true);
 				}
 			} else if (action.equals(BluetoothAdapter.ACTION_DISCOVERY_STARTED) || action.equals(BluetoothAdapter.ACTION_DISCOVERY_FINISHED)) {
+				// Report the last devices found before the end of the discovery
+				if (action.equals(BluetoothAdapter.ACTION_DISCOVERY_FINISHED)) {
+					flushDeviceAdded();
+				}
 				getAdapterState(mContextForAdapterStateChanged, true);
 			} else if (action.equals(BluetoothDevice.ACTION_FOUND)) {
-				try {
-					BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-					JSONObject deviceInfo = getDeviceInfo(device);
+				BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+				BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+				String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+				short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, DeviceRegistry.RSSI_UNKNOWN);
+
+				addDiscoveredDevice(device, name, (bluetoothClass != null) ? bluetoothClass.getDeviceClass() : 0, rssi);
+			} else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED) || action.equals(BluetoothDevice.ACTION_NAME_CHANGED)) {
+				BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+				invalidateDeviceInfo(device.getAddress());
+			} else if (action.equals(BluetoothDevice.ACTION_UUID)) {
+				BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+				ArrayList<CallbackContext> callbackContexts;
+
+				invalidateDeviceInfo(device.getAddress());
+				synchronized (mContextForFetchUuids) {
+					callbackContexts = mContextForFetchUuids.remove(device.getAddress());
+				}
 
-					pluginResult = new PluginResult(PluginResult.Status.OK, deviceInfo);
-					pluginResult.setKeepCallback(true);
-					mContextForDeviceAdded.sendPluginResult(pluginResult);
-				} catch (JSONException e) {
-					pluginResult = new PluginResult(PluginResult.Status.ERROR, e.getMessage());
-					pluginResult.setKeepCallback(true);
-					mContextForDeviceAdded.sendPluginResult(pluginResult);
+				if (callbackContexts != null) {
+					try {
+						JSONObject deviceInfo = getCachedDeviceInfo(device);
+						for (CallbackContext callbackContext : callbackContexts) {
+							callbackContext.success(deviceInfo);
+						}
+					} catch (JSONException e) {
+						for (CallbackContext callbackContext : callbackContexts) {
+							callbackContext.error(e.getMessage());
+						}
+					}
 				}
 			} else if (action.equals(BluetoothAdapter.ACTION_SCAN_MODE_CHANGED)) {
 				// BUG: The documented EXTRA_PREVIOUS_SCAN_MODE field of the intent is not implemented on Android.
@@ -482,123 +1189,1675 @@ public class NetworkingBluetooth extends CordovaPlugin {
 		}
 	};
 
-	public void readLoop(int socketId, BluetoothSocket socket) {
-		byte[] readBuffer = new byte[READ_BUFFER_SIZE];
-		byte[] data;
-		ArrayList<PluginResult> multipartMessages;
+	public void addDiscoveredDevice(BluetoothDevice device, String name, int deviceClass, short rssi) {
 		PluginResult pluginResult;
 
-		try {
-			InputStream stream = socket.getInputStream();
-			int bytesRead;
+		synchronized (this.mDeviceRegistry) {
+			int change = this.mDeviceRegistry.update(device.getAddress(), name, deviceClass, rssi, System.currentTimeMillis());
+			if (change == DeviceRegistry.UNCHANGED) {
+				return;
+			}
 
-			while (socket.isConnected()) {
-				bytesRead = stream.read(readBuffer);
-				if (bytesRead < 0) {
-					throw new IOException("Disconnected");
-				} else if (bytesRead > 0) {
-					data = Arrays.copyOf(readBuffer, bytesRead);
-					multipartMessages = new ArrayList<PluginResult>();
-					multipartMessages.add(new PluginResult(PluginResult.Status.OK, socketId));
-					multipartMessages.add(new PluginResult(PluginResult.Status.OK, data));
-					pluginResult = new PluginResult(PluginResult.Status.OK, multipartMessages);
+			if (change == DeviceRegistry.INFO_CHANGED) {
+				try {
+					JSONObject deviceInfo = this.getDeviceInfo(device);
+					if (name != null) {
+						deviceInfo.put("name", name);
+					}
+					this.mDeviceRegistry.setInfo(device.getAddress(), deviceInfo);
+				} catch (JSONException e) {
+					pluginResult = new PluginResult(PluginResult.Status.ERROR, e.getMessage());
 					pluginResult.setKeepCallback(true);
-					this.mContextForReceive.sendPluginResult(pluginResult);
+					this.sendEvent(this.mContextForDeviceAdded, pluginResult);
+					return;
 				}
 			}
-		} catch (IOException e) {
-			try {
-				JSONObject info = new JSONObject();
-				info.put("socketId", socketId);
-				info.put("errorMessage", e.getMessage());
-				pluginResult = new PluginResult(PluginResult.Status.OK, info);
-				pluginResult.setKeepCallback(true);
-				this.mContextForReceiveError.sendPluginResult(pluginResult);
-			} catch (JSONException ex) {}
-		}
 
-		try {
-			socket.close();
-		} catch (IOException e) {}
-
-		// The socket has been closed, remove its socketId
-		this.mClientSockets.remove(socketId);
+			// The batch time window starts with the first device of the batch
+			if (this.mDeviceAddedFlush == null) {
+				this.mDeviceAddedFlush = this.mScheduler.schedule(new Runnable() {
+					public void run() {
+						flushDeviceAdded();
+					}
+				}, DEVICE_ADDED_BATCH_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
 	}
 
-	public void acceptLoop(int serverSocketId, BluetoothServerSocket serverSocket) {
-		int clientSocketId;
-		BluetoothSocket clientSocket;
-		ArrayList<PluginResult> multipartMessages;
+	public void flushDeviceAdded() {
 		PluginResult pluginResult;
+		JSONArray deviceInfos;
 
-		try {
-			while (true) {
-				clientSocket = serverSocket.accept();
-				if (clientSocket == null) {
-					throw new IOException("Disconnected");
-				}
-
-				clientSocketId = this.mSocketId.getAndIncrement();
-				this.mClientSockets.put(clientSocketId, clientSocket);
+		synchronized (this.mDeviceRegistry) {
+			if (this.mDeviceAddedFlush != null) {
+				this.mDeviceAddedFlush.cancel(false);
+				this.mDeviceAddedFlush = null;
+			}
 
-				multipartMessages = new ArrayList<PluginResult>();
-				multipartMessages.add(new PluginResult(PluginResult.Status.OK, serverSocketId));
-				multipartMessages.add(new PluginResult(PluginResult.Status.OK, clientSocketId));
-				pluginResult = new PluginResult(PluginResult.Status.OK, multipartMessages);
+			try {
+				deviceInfos = this.mDeviceRegistry.takeChanged();
+			} catch (JSONException e) {
+				pluginResult = new PluginResult(PluginResult.Status.ERROR, e.getMessage());
 				pluginResult.setKeepCallback(true);
-				this.mContextForAccept.sendPluginResult(pluginResult);
-
-				this.newReadLoopThread(clientSocketId, clientSocket);
+				this.sendEvent(this.mContextForDeviceAdded, pluginResult);
+				return;
 			}
-		} catch (IOException e) {
-			try {
-				JSONObject info = new JSONObject();
-				info.put("socketId", serverSocketId);
-				info.put("errorMessage", e.getMessage());
-				pluginResult = new PluginResult(PluginResult.Status.OK, info);
+
+			// The JavaScript side fires an onDeviceAdded event for each device of the array
+			if (deviceInfos.length() > 0) {
+				pluginResult = new PluginResult(PluginResult.Status.OK, deviceInfos);
 				pluginResult.setKeepCallback(true);
-				this.mContextForAcceptError.sendPluginResult(pluginResult);
-			} catch (JSONException ex) {}
+				this.sendEvent(this.mContextForDeviceAdded, pluginResult);
+			}
 		}
+	}
 
-		try {
-			serverSocket.close();
-		} catch (IOException e) {}
+	public Transport.Connection connectTransport(final Transport.ConnectAttempt attempt, int connectTimeout) throws IOException {
+		ScheduledFuture<?> timeout = null;
+		Transport.Connection socket;
+
+		this.mPendingConnects.add(attempt);
+		try {
+			if (connectTimeout > 0) {
+				timeout = this.mScheduler.schedule(new Runnable() {
+					public void run() {
+						attempt.cancel("Connection timed out");
+					}
+				}, connectTimeout, TimeUnit.MILLISECONDS);
+			}
+
+			try {
+				socket = this.mTransport.connect(attempt);
+			} catch (IOException e) {
+				// Whatever the transport reports for the socket closed under it
+				if (attempt.isCancelled()) {
+					throw new IOException(attempt.mCancelReason);
+				}
+				throw e;
+			}
+		} finally {
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			this.mPendingConnects.remove(attempt);
+		}
+
+		// The attempt may have been cancelled right after connecting
+		if (!attempt.finish()) {
+			socket.close();
+			throw new IOException(attempt.mCancelReason);
+		}
+
+		return socket;
+	}
+
+	public ClientSocket addClientSocket(Transport.Connection socket, Transport.ConnectAttempt attempt, JSONObject options) throws IOException {
+		ClientSocket clientSocket = new ClientSocket(this.mSocketId.getAndIncrement(), socket);
+		clientSocket.mConnectAttempt = attempt;
+
+		// The socket is published only once it is fully configured, so that the reaper, send and sendToMany
+		// never see it without its framing, compression or keepalive interval
+		try {
+			this.setSocketOptions(clientSocket, options);
+		} catch (IOException e) {
+			this.discardClientSocket(clientSocket);
+			throw e;
+		}
+
+		synchronized (this.mClientSockets) {
+			if (this.isSocketLimitReached()) {
+				this.discardClientSocket(clientSocket);
+				throw new IOException("Too many sockets");
+			}
+			this.mClientSockets.put(clientSocket.mSocketId, clientSocket);
+		}
+
+		try {
+			this.newWriteLoopThread(clientSocket);
+		} catch (RejectedExecutionException e) {
+			this.mClientSockets.remove(clientSocket.mSocketId, clientSocket);
+			this.discardClientSocket(clientSocket);
+			throw new IOException("Too many sockets");
+		}
+
+		return clientSocket;
+	}
+
+	// Closes a socket that never got its read and write loops, and ends the streams that they would have ended
+	public void discardClientSocket(ClientSocket clientSocket) throws IOException {
+		try {
+			this.closeClientSocket(clientSocket);
+		} finally {
+			if (clientSocket.mDeflater != null) {
+				clientSocket.mDeflater.end();
+				clientSocket.mInflater.end();
+			}
+		}
+	}
+
+	public void addServerSocket(ServerSocket serverSocket) throws IOException {
+		// The client sockets and the server sockets are added under the same lock, so that the limit holds
+		synchronized (this.mClientSockets) {
+			if (this.isSocketLimitReached()) {
+				serverSocket.mListener.close();
+				throw new IOException("Too many sockets");
+			}
+			this.mServerSockets.put(serverSocket.mSocketId, serverSocket);
+		}
+	}
+
+	public boolean isSocketLimitReached() {
+		return (this.mMaxSockets > 0) && (this.mClientSockets.size() + this.mServerSockets.size() >= this.mMaxSockets);
+	}
+
+	public void setSocketOptions(ClientSocket clientSocket, JSONObject options) throws IOException {
+		if (options == null) {
+			return;
+		}
+
+		clientSocket.mSendHighWaterMark = Math.max(options.optLong("sendHighWaterMark", DEFAULT_SEND_HIGH_WATER_MARK), 1);
+		clientSocket.mSendLowWaterMark = Math.min(options.optLong("sendLowWaterMark", clientSocket.mSendHighWaterMark / 4), clientSocket.mSendHighWaterMark);
+
+		clientSocket.mType = this.getSocketType(options);
+
+		int bufferSize = options.optInt("bufferSize", READ_BUFFER_SIZE);
+		clientSocket.mBufferSize = Math.max(1, Math.min(bufferSize, MAX_READ_BUFFER_SIZE));
+
+		// Coalesce the received data up to receiveBatchSize bytes, or for receiveBatchDelay milliseconds.
+		// Both are clamped like the bufferSize, as they come from the script.
+		int receiveBatchSize = options.optInt("receiveBatchSize", 0);
+		if (receiveBatchSize > 0) {
+			clientSocket.mReceiveBatch = new byte[Math.min(receiveBatchSize, MAX_READ_BUFFER_SIZE)];
+			clientSocket.mReceiveBatchDelay = Math.max(1, Math.min(options.optInt("receiveBatchDelay", DEFAULT_RECEIVE_BATCH_DELAY), MAX_RECEIVE_BATCH_DELAY));
+		}
+
+		clientSocket.mFrameCodec = this.createFrameCodec(options);
+
+		// Raw deflate streams, flushed at the end of each write
+		int compressionLevel = this.getCompressionLevel(options);
+		if (compressionLevel != COMPRESSION_DISABLED) {
+			clientSocket.mDeflater = new Deflater(compressionLevel, true);
+			clientSocket.mInflater = new Inflater(true);
+		}
+
+		InboundHandler.Factory inboundHandlerFactory = this.getInboundHandlerFactory(options);
+		if (inboundHandlerFactory != null) {
+			try {
+				clientSocket.mInboundHandler = inboundHandlerFactory.create();
+			} catch (RuntimeException e) {
+				// A broken factory fails its socket, instead of the connect or the accept loop
+				Log.e(TAG, "InboundHandler create", e);
+				throw new IOException("InboundHandler failed");
+			}
+		}
+
+		// Only the sockets made by connect know where to reconnect to
+		JSONObject reconnect = options.optJSONObject("reconnect");
+		if ((reconnect == null) && options.optBoolean("reconnect", false)) {
+			reconnect = new JSONObject();
+		}
+		if ((reconnect != null) && (clientSocket.mConnectAttempt != null)) {
+			clientSocket.mReconnect = true;
+			clientSocket.mConnectTimeout = options.optInt("connectTimeout", 0);
+			clientSocket.mReconnectMaxAttempts = reconnect.optInt("maxAttempts", DEFAULT_RECONNECT_MAX_ATTEMPTS);
+			clientSocket.mReconnectDelay = Math.max(reconnect.optInt("initialDelay", DEFAULT_RECONNECT_DELAY), 1);
+			clientSocket.mReconnectMaxDelay = Math.max(reconnect.optInt("maxDelay", DEFAULT_RECONNECT_MAX_DELAY), clientSocket.mReconnectDelay);
+		}
+
+		clientSocket.mIdleTimeout = Math.max(options.optInt("idleTimeout", 0), 0);
+		clientSocket.mKeepAliveData = this.getKeepAliveData(options);
+		if (clientSocket.mKeepAliveData != null) {
+			clientSocket.mKeepAliveInterval = options.optJSONObject("keepAlive").optInt("interval", 0);
+		}
+
+		if ((clientSocket.mIdleTimeout > 0) || (clientSocket.mKeepAliveData != null)) {
+			this.startReaper();
+		}
+	}
+
+	// Returns null when the keepalive is disabled. The data is an array of byte values, and it may be empty
+	// only with framing, where it is sent as an empty message.
+	public byte[] getKeepAliveData(JSONObject options) {
+		JSONObject keepAlive = (options != null) ? options.optJSONObject("keepAlive") : null;
+		if (keepAlive == null) {
+			return null;
+		}
+
+		int interval = keepAlive.optInt("interval", 0);
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Invalid keepAlive interval: " + interval);
+		}
+
+		JSONArray values = keepAlive.optJSONArray("data");
+		byte[] data = new byte[(values != null) ? values.length() : 0];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) values.optInt(i);
+		}
+
+		if ((data.length == 0) && (options.optJSONObject("framing") == null)) {
+			throw new IllegalArgumentException("Invalid keepAlive data");
+		}
+
+		return data;
+	}
+
+	public FrameCodec createFrameCodec(JSONObject options) {
+		JSONObject framing = (options != null) ? options.optJSONObject("framing") : null;
+		if (framing == null) {
+			return null;
+		}
+
+		String type = framing.optString("type", "length");
+		int maxFrameSize = framing.optInt("maxFrameSize", FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+		if (maxFrameSize <= 0) {
+			throw new IllegalArgumentException("Invalid maxFrameSize: " + maxFrameSize);
+		}
+
+		if (type.equals("length")) {
+			return new FrameCodec(FrameCodec.LENGTH_PREFIX, framing.optInt("lengthSize", 4), 0, maxFrameSize);
+		} else if (type.equals("delimiter")) {
+			return new FrameCodec(FrameCodec.DELIMITER, 0, framing.optInt("delimiter", '\n'), maxFrameSize);
+		} else {
+			throw new IllegalArgumentException("Invalid framing type: " + type);
+		}
+	}
+
+	// Allows the app to register its handlers, for example in the onCreate method of its activity
+	public static void registerInboundHandler(String name, InboundHandler.Factory factory) {
+		INBOUND_HANDLERS.put(name, factory);
+	}
+
+	public InboundHandler.Factory getInboundHandlerFactory(JSONObject options) {
+		String name = (options != null) ? options.optString("inboundHandler", null) : null;
+		if (name == null) {
+			return null;
+		}
+
+		InboundHandler.Factory factory = INBOUND_HANDLERS.get(name);
+		if (factory == null) {
+			throw new IllegalArgumentException("Unknown inboundHandler: " + name);
+		}
+
+		return factory;
+	}
+
+	public int getSocketType(JSONObject options) {
+		String type = (options != null) ? options.optString("type", null) : null;
+		if (type == null) {
+			return Transport.TYPE_RFCOMM;
+		}
+
+		for (int i = 0; i < SOCKET_TYPES.length; i++) {
+			if (SOCKET_TYPES[i].equals(type)) {
+				return i;
+			}
+		}
+
+		throw new IllegalArgumentException("Invalid type: " + type);
+	}
+
+	// Returns 0 for the RFCOMM types, that do not use the psm
+	public int getPsm(JSONObject options, int type) {
+		if ((type != Transport.TYPE_L2CAP) && (type != Transport.TYPE_L2CAP_INSECURE)) {
+			return 0;
+		}
+
+		int psm = (options != null) ? options.optInt("psm", 0) : 0;
+		if (psm <= 0) {
+			throw new IllegalArgumentException("Invalid psm: " + psm);
+		}
+
+		return psm;
+	}
+
+	public int getCompressionLevel(JSONObject options) {
+		JSONObject compression = (options != null) ? options.optJSONObject("compression") : null;
+		if (compression == null) {
+			if ((options == null) || !options.optBoolean("compression", false)) {
+				return COMPRESSION_DISABLED;
+			}
+			compression = new JSONObject();
+		}
+
+		int level = compression.optInt("level", Deflater.DEFAULT_COMPRESSION);
+		if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+
+		return level;
+	}
+
+	public JSONObject getSocketInfo(ClientSocket clientSocket) throws JSONException {
+		JSONObject socketInfo = new JSONObject();
+
+		socketInfo.put("socketId", clientSocket.mSocketId);
+		socketInfo.put("address", clientSocket.mSocket.getAddress());
+		socketInfo.put("type", SOCKET_TYPES[clientSocket.mType]);
+		socketInfo.put("connected", !clientSocket.mClosed && !clientSocket.mReconnecting && clientSocket.mSocket.isConnected());
+		socketInfo.put("reconnecting", clientSocket.mReconnecting);
+		socketInfo.put("paused", clientSocket.mPaused);
+		socketInfo.put("idleTime", System.currentTimeMillis() - clientSocket.mLastReceiveTime);
+		socketInfo.put("bufferSize", clientSocket.mBufferSize);
+		socketInfo.put("bufferedAmount", clientSocket.mBufferedAmount.get());
+		socketInfo.put("sendQueueDepth", clientSocket.mSendQueue.size());
+		socketInfo.put("metrics", clientSocket.mMetrics.toJSON());
+
+		return socketInfo;
+	}
+
+	public JSONObject getServerSocketInfo(ServerSocket serverSocket) throws JSONException {
+		JSONObject socketInfo = new JSONObject();
+
+		socketInfo.put("socketId", serverSocket.mSocketId);
+		socketInfo.put("uuid", serverSocket.mUuid);
+		socketInfo.put("type", SOCKET_TYPES[serverSocket.mType]);
+		if (serverSocket.mListener.getPsm() > 0) {
+			socketInfo.put("psm", serverSocket.mListener.getPsm());
+		}
+		socketInfo.put("listening", true);
+		socketInfo.put("metrics", serverSocket.mMetrics.toServerJSON());
+
+		return socketInfo;
+	}
+
+	public void setPaused(ClientSocket clientSocket, boolean paused) {
+		synchronized (clientSocket.mPauseLock) {
+			clientSocket.mPaused = paused;
+			clientSocket.mPauseLock.notifyAll();
+		}
+	}
+
+	public void waitWhilePaused(ClientSocket clientSocket) throws IOException {
+		// While the read loop is not reading, RFCOMM flow control stops the peer from sending
+		synchronized (clientSocket.mPauseLock) {
+			while (clientSocket.mPaused && !clientSocket.mClosed) {
+				try {
+					clientSocket.mPauseLock.wait();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+				// The idle time counts from when the socket reads again
+				clientSocket.mLastReceiveTime = System.currentTimeMillis();
+			}
+		}
+	}
+
+	public void closeClientSocket(ClientSocket clientSocket) throws IOException {
+		this.stopWriteLoop(clientSocket);
+
+		// Stop a reconnection that is in progress
+		Transport.ConnectAttempt attempt = clientSocket.mConnectAttempt;
+		if (attempt != null) {
+			attempt.cancel("Socket closed");
+		}
+
+		// Wake up the read loop, if it is paused or waiting to reconnect, and the write loop,
+		// if it is waiting for the reconnection
+		synchronized (clientSocket.mPauseLock) {
+			clientSocket.mPauseLock.notifyAll();
+		}
+
+		clientSocket.mSocket.close();
+	}
+
+	// Runs in the read loop thread. Returns false when the socket has been closed, or the attempts are over.
+	public boolean reconnect(ClientSocket clientSocket) {
+		Transport.ConnectAttempt previousAttempt = clientSocket.mConnectAttempt;
+		Transport.ConnectAttempt attempt;
+		Transport.Connection socket;
+		long delay = clientSocket.mReconnectDelay;
+		long deadline;
+		long remaining;
+
+		clientSocket.mReconnecting = true;
+
+		// Make the write loop fail too, if it is blocked on the old connection
+		try {
+			clientSocket.mSocket.close();
+		} catch (IOException e) {}
+
+		for (int i = 0; (clientSocket.mReconnectMaxAttempts <= 0) || (i < clientSocket.mReconnectMaxAttempts); i++) {
+			synchronized (clientSocket.mPauseLock) {
+				deadline = System.currentTimeMillis() + delay;
+				while (!clientSocket.mClosed && ((remaining = deadline - System.currentTimeMillis()) > 0)) {
+					try {
+						clientSocket.mPauseLock.wait(remaining);
+					} catch (InterruptedException e) {
+						clientSocket.mReconnecting = false;
+						return false;
+					}
+				}
+			}
+
+			// closeClientSocket sets mClosed before cancelling mConnectAttempt, so that one of the two
+			// checks sees the other
+			attempt = new Transport.ConnectAttempt(previousAttempt.mAddress, previousAttempt.mUuid, previousAttempt.mType, previousAttempt.mPsm);
+			clientSocket.mConnectAttempt = attempt;
+			if (clientSocket.mClosed) {
+				break;
+			}
+
+			try {
+				socket = this.connectTransport(attempt, clientSocket.mConnectTimeout);
+			} catch (IOException e) {
+				delay = Math.min(delay * 2, clientSocket.mReconnectMaxDelay);
+				continue;
+			}
+
+			synchronized (clientSocket.mPauseLock) {
+				if (clientSocket.mClosed) {
+					try {
+						socket.close();
+					} catch (IOException e) {}
+					break;
+				}
+
+				// The partial frame of the old connection can not be completed anymore
+				if (clientSocket.mFrameCodec != null) {
+					clientSocket.mFrameCodec.reset();
+				}
+
+				// The peer starts a new compressed stream on the new connection
+				if (clientSocket.mInflater != null) {
+					clientSocket.mInflater.reset();
+				}
+
+				clientSocket.mSocket = socket;
+				clientSocket.mLastReceiveTime = System.currentTimeMillis();
+				clientSocket.mLinkGeneration++;
+				clientSocket.mReconnecting = false;
+				clientSocket.mPauseLock.notifyAll();
+			}
+
+			clientSocket.mMetrics.mReconnects.incrementAndGet();
+			return true;
+		}
+
+		clientSocket.mReconnecting = false;
+		return false;
+	}
+
+	// Runs in the write loop thread. Returns true when the data can be written again on a new connection.
+	public boolean waitForReconnect(ClientSocket clientSocket, Transport.Connection socket, int linkGeneration) {
+		// Make the read loop notice the broken connection, if it is blocked reading
+		try {
+			socket.close();
+		} catch (IOException e) {}
+
+		synchronized (clientSocket.mPauseLock) {
+			while (!clientSocket.mClosed && (clientSocket.mLinkGeneration == linkGeneration)) {
+				try {
+					clientSocket.mPauseLock.wait();
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+
+			return !clientSocket.mClosed;
+		}
+	}
+
+	public void readLoop(ClientSocket clientSocket) {
+		final int socketId = clientSocket.mSocketId;
+		Transport.Connection socket;
+		byte[] readBuffer = new byte[clientSocket.mBufferSize];
+		byte[] inflateBuffer = (clientSocket.mInflater != null) ? new byte[clientSocket.mBufferSize] : null;
+
+		// Each complete frame is delivered in its own onReceive event
+		final ClientSocket frameSocket = clientSocket;
+		FrameCodec.FrameListener frameListener = new FrameCodec.FrameListener() {
+			public void onFrame(byte[] buffer, int offset, int length) throws IOException {
+				handleReceive(frameSocket, buffer, offset, length);
+			}
+		};
+
+		while (true) {
+			socket = clientSocket.mSocket;
+
+			try {
+				InputStream stream = socket.getInputStream();
+				int bytesRead;
+
+				while (socket.isConnected()) {
+					this.waitWhilePaused(clientSocket);
+					this.waitWhileSpoolFull(clientSocket);
+
+					bytesRead = stream.read(readBuffer);
+					if (bytesRead < 0) {
+						throw new IOException("Disconnected");
+					} else if (bytesRead > 0) {
+						clientSocket.mMetrics.recordRead(bytesRead);
+						clientSocket.mLastReceiveTime = System.currentTimeMillis();
+
+						// The read may have been waiting already when the socket was paused
+						this.waitWhilePaused(clientSocket);
+
+						if (clientSocket.mInflater != null) {
+							this.inflateReceive(clientSocket, readBuffer, bytesRead, inflateBuffer, frameListener);
+						} else {
+							this.deliverReceive(clientSocket, readBuffer, bytesRead, frameListener);
+						}
+					}
+				}
+			} catch (IOException e) {
+				if (!clientSocket.mClosed) {
+					clientSocket.mMetrics.mReadErrors.incrementAndGet();
+
+					// A supervised socket is not reported as broken, unless it can not reconnect
+					if (clientSocket.mReconnect && this.reconnect(clientSocket)) {
+						continue;
+					}
+				}
+
+				// Deliver the pending data before the error
+				if (clientSocket.mReceiveBatch != null) {
+					this.flushReceiveBatch(clientSocket);
+				}
+
+				this.sendReceiveError(socketId, (clientSocket.mCloseReason != null) ? clientSocket.mCloseReason : e.getMessage());
+			}
+
+			break;
+		}
+
+		try {
+			this.closeClientSocket(clientSocket);
+		} catch (IOException e) {}
+
+		if (clientSocket.mInflater != null) {
+			clientSocket.mInflater.end();
+		}
+
+		if (clientSocket.mInboundHandler != null) {
+			try {
+				clientSocket.mInboundHandler.onClose(clientSocket);
+			} catch (RuntimeException e) {
+				// The file receive and the socketId are cleaned up all the same
+				Log.e(TAG, "InboundHandler onClose", e);
+			}
+		}
+
+		FileReceive fileReceive;
+		synchronized (clientSocket) {
+			fileReceive = clientSocket.mFileReceive;
+			clientSocket.mFileReceive = null;
+		}
+		if (fileReceive != null) {
+			if (fileReceive.mErrorMessage == null) {
+				fileReceive.mErrorMessage = "Socket closed";
+			}
+			this.finishFileReceive(fileReceive);
+		}
+
+		// The socket has been closed, remove its socketId
+		this.mClientSockets.remove(socketId, clientSocket);
+	}
+
+	public void deliverReceive(ClientSocket clientSocket, byte[] data, int length, FrameCodec.FrameListener frameListener) throws IOException {
+		int offset = 0;
+
+		// The data of a file goes to the file, and only the data after it goes to onReceive
+		FileReceive fileReceive = clientSocket.mFileReceive;
+		if (fileReceive != null) {
+			offset = this.writeFileReceive(clientSocket, fileReceive, data, length);
+			if (offset == length) {
+				return;
+			}
+		}
+
+		if (clientSocket.mFrameCodec != null) {
+			clientSocket.mFrameCodec.decode(data, offset, length - offset, frameListener);
+		} else {
+			this.handleReceive(clientSocket, data, offset, length - offset);
+		}
+	}
+
+	public void handleReceive(ClientSocket clientSocket, byte[] buffer, int offset, int length) throws IOException {
+		if (clientSocket.mInboundHandler != null) {
+			try {
+				if (!clientSocket.mInboundHandler.onReceive(clientSocket, buffer, offset, length)) {
+					return;
+				}
+			} catch (RuntimeException e) {
+				// A broken handler closes its socket, instead of the read loop thread
+				Log.e(TAG, "InboundHandler onReceive", e);
+				throw new IOException("InboundHandler failed");
+			}
+		}
+
+		this.forwardReceive(clientSocket, buffer, offset, length);
+	}
+
+	public void forwardReceive(ClientSocket clientSocket, byte[] buffer, int offset, int length) {
+		// The messages of the framing are never batched
+		if ((clientSocket.mFrameCodec == null) && (clientSocket.mReceiveBatch != null)) {
+			this.batchReceive(clientSocket, buffer, offset, length);
+		} else {
+			this.sendReceive(clientSocket.mSocketId, buffer, offset, length);
+		}
+	}
+
+	public void inflateReceive(ClientSocket clientSocket, byte[] data, int length, byte[] inflateBuffer, FrameCodec.FrameListener frameListener) throws IOException {
+		int inflatedLength;
+
+		clientSocket.mInflater.setInput(data, 0, length);
+		try {
+			while ((inflatedLength = clientSocket.mInflater.inflate(inflateBuffer)) > 0) {
+				this.deliverReceive(clientSocket, inflateBuffer, inflatedLength, frameListener);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed data");
+		}
+	}
+
+	public void sendReceiveError(int socketId, String errorMessage) {
+		if (this.spoolReceiveError(socketId, errorMessage)) {
+			return;
+		}
+
+		this.sendReceiveErrorResult(socketId, errorMessage);
+	}
+
+	public void sendReceiveErrorResult(int socketId, String errorMessage) {
+		// Deliver the data of the socket before the error
+		if (this.mReceiveEnvelope != null) {
+			this.flushReceiveEnvelope();
+		}
+
+		try {
+			JSONObject info = new JSONObject();
+			info.put("socketId", socketId);
+			info.put("errorMessage", errorMessage);
+			PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, info);
+			pluginResult.setKeepCallback(true);
+			this.sendEvent(this.mContextForReceiveError, pluginResult);
+		} catch (JSONException e) {}
+	}
+
+	public void sendReceive(int socketId, byte[] buffer, int offset, int length) {
+		if (this.spoolReceive(socketId, buffer, offset, length)) {
+			return;
+		}
+
+		this.dispatchReceive(socketId, buffer, offset, length);
+	}
+
+	public void dispatchReceive(int socketId, byte[] buffer, int offset, int length) {
+		if (this.mReceiveEnvelope != null) {
+			this.envelopeReceive(socketId, buffer, offset, length);
+		} else {
+			this.sendReceiveResult(socketId, buffer, offset, length);
+		}
+	}
+
+	public void sendReceiveResult(int socketId, byte[] buffer, int offset, int length) {
+		byte[] data;
+
+		// The PluginResult encodes the data as soon as it is constructed, so that a full buffer can be
+		// handed to the bridge as is. The bridge encodes the whole array, so the other data is copied
+		// to an array of its exact length.
+		if ((offset == 0) && (length == buffer.length)) {
+			data = buffer;
+		} else {
+			data = Arrays.copyOfRange(buffer, offset, offset + length);
+		}
+
+		ArrayList<PluginResult> multipartMessages = new ArrayList<PluginResult>();
+		multipartMessages.add(new PluginResult(PluginResult.Status.OK, socketId));
+		multipartMessages.add(new PluginResult(PluginResult.Status.OK, data));
+
+		PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, multipartMessages);
+		pluginResult.setKeepCallback(true);
+		this.sendEvent(this.mContextForReceive, pluginResult);
+	}
+
+	public void envelopeReceive(int socketId, byte[] buffer, int offset, int length) {
+		synchronized (this.mReceiveEnvelopeLock) {
+			byte[] envelope = this.mReceiveEnvelope;
+			int position = this.mReceiveEnvelopeLength;
+
+			// Keep the order of the data when the envelope can not hold the new record
+			if (position + RECEIVE_ENVELOPE_HEADER_SIZE + length > envelope.length) {
+				this.flushReceiveEnvelope();
+				position = 0;
+			}
+
+			if (length > MAX_RECEIVE_ENVELOPE_RECORD_LENGTH) {
+				this.sendReceiveResult(socketId, buffer, offset, length);
+				return;
+			}
+
+			envelope[position] = (byte) (socketId >>> 24);
+			envelope[position + 1] = (byte) (socketId >>> 16);
+			envelope[position + 2] = (byte) (socketId >>> 8);
+			envelope[position + 3] = (byte) socketId;
+			// The flags are reserved, and always 0
+			envelope[position + 4] = 0;
+			envelope[position + 5] = (byte) (length >>> 16);
+			envelope[position + 6] = (byte) (length >>> 8);
+			envelope[position + 7] = (byte) length;
+			System.arraycopy(buffer, offset, envelope, position + RECEIVE_ENVELOPE_HEADER_SIZE, length);
+			this.mReceiveEnvelopeLength = position + RECEIVE_ENVELOPE_HEADER_SIZE + length;
+
+			if (this.mReceiveEnvelopeLength + RECEIVE_ENVELOPE_HEADER_SIZE >= envelope.length) {
+				this.flushReceiveEnvelope();
+			} else if (this.mReceiveEnvelopeFlush == null) {
+				// The time window starts with the first record of the envelope
+				this.mReceiveEnvelopeFlush = this.mScheduler.schedule(new Runnable() {
+					public void run() {
+						flushReceiveEnvelope();
+					}
+				}, RECEIVE_ENVELOPE_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	public void flushReceiveEnvelope() {
+		synchronized (this.mReceiveEnvelopeLock) {
+			byte[] envelope = this.mReceiveEnvelope;
+			byte[] data;
+
+			if (this.mReceiveEnvelopeFlush != null) {
+				this.mReceiveEnvelopeFlush.cancel(false);
+				this.mReceiveEnvelopeFlush = null;
+			}
+
+			if (this.mReceiveEnvelopeLength == 0) {
+				return;
+			}
+
+			// As in sendReceiveResult, the data is encoded as soon as the PluginResult is constructed
+			if (this.mReceiveEnvelopeLength == envelope.length) {
+				data = envelope;
+			} else {
+				data = Arrays.copyOf(envelope, this.mReceiveEnvelopeLength);
+			}
+
+			PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, data);
+			pluginResult.setKeepCallback(true);
+			this.mReceiveEnvelopeLength = 0;
+
+			this.sendEvent(this.mContextForReceive, pluginResult);
+		}
+	}
+
+	public void batchReceive(final ClientSocket clientSocket, byte[] data, int offset, int length) {
+		synchronized (clientSocket) {
+			byte[] batch = clientSocket.mReceiveBatch;
+
+			// Keep the order of the data when the batch can not hold the new data
+			if (clientSocket.mReceiveBatchLength + length > batch.length) {
+				this.flushReceiveBatch(clientSocket);
+			}
+
+			if (length >= batch.length) {
+				this.sendReceive(clientSocket.mSocketId, data, offset, length);
+				return;
+			}
+
+			System.arraycopy(data, offset, batch, clientSocket.mReceiveBatchLength, length);
+			clientSocket.mReceiveBatchLength += length;
+
+			if (clientSocket.mReceiveBatchLength >= batch.length) {
+				this.flushReceiveBatch(clientSocket);
+			} else if (clientSocket.mReceiveBatchFlush == null) {
+				// The time window starts with the first chunk of the batch
+				clientSocket.mReceiveBatchFlush = this.mScheduler.schedule(new Runnable() {
+					public void run() {
+						flushReceiveBatch(clientSocket);
+					}
+				}, clientSocket.mReceiveBatchDelay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	public void flushReceiveBatch(ClientSocket clientSocket) {
+		synchronized (clientSocket) {
+			if (clientSocket.mReceiveBatchFlush != null) {
+				clientSocket.mReceiveBatchFlush.cancel(false);
+				clientSocket.mReceiveBatchFlush = null;
+			}
+
+			if (clientSocket.mReceiveBatchLength > 0) {
+				this.sendReceive(clientSocket.mSocketId, clientSocket.mReceiveBatch, 0, clientSocket.mReceiveBatchLength);
+				clientSocket.mReceiveBatchLength = 0;
+			}
+		}
+	}
+
+	// Returns the spool that must receive the data of the socket, or null if the data can be delivered straight away.
+	// While a spool is being drained after a resume, the new data of its socket goes to the spool too, to keep the order.
+	public InboundSpool getSpool(int socketId) {
+		InboundSpool spool = this.mSpools.get(socketId);
+		if ((spool != null) || !this.mBackground) {
+			return spool;
+		}
+
+		ClientSocket clientSocket = this.mClientSockets.get(socketId);
+		boolean coalesce = (clientSocket != null) && (clientSocket.mFrameCodec == null);
+
+		// Under the lock of onResume, so that a spool is either added before the resume, and drained by it,
+		// or not added at all once the app is back in the foreground
+		synchronized (this.mSpools) {
+			spool = this.mSpools.get(socketId);
+			if ((spool == null) && this.mBackground) {
+				spool = new InboundSpool(socketId, coalesce, SPOOL_MEMORY_SIZE, this.mBackgroundBufferSize, this.mSpoolDirectory);
+				this.mSpools.put(socketId, spool);
+			}
+		}
+
+		return spool;
+	}
+
+	public boolean spoolReceive(int socketId, byte[] buffer, int offset, int length) {
+		InboundSpool spool;
+
+		// A spool is closed by the drain as soon as it is empty, and then the data is delivered straight away
+		while ((spool = this.getSpool(socketId)) != null) {
+			if (spool.add(buffer, offset, length)) {
+				return true;
+			}
+			this.mSpools.remove(socketId, spool);
+		}
+
+		return false;
+	}
+
+	public boolean spoolReceiveError(int socketId, String errorMessage) {
+		InboundSpool spool;
+
+		while ((spool = this.getSpool(socketId)) != null) {
+			if (spool.addError(errorMessage)) {
+				return true;
+			}
+			this.mSpools.remove(socketId, spool);
+		}
+
+		return false;
+	}
+
+	public void waitWhileSpoolFull(ClientSocket clientSocket) throws IOException {
+		InboundSpool spool;
+
+		// Like while paused, RFCOMM flow control stops the peer from sending
+		synchronized (clientSocket.mPauseLock) {
+			while (!clientSocket.mClosed && ((spool = this.mSpools.get(clientSocket.mSocketId)) != null) && spool.isFull()) {
+				try {
+					clientSocket.mPauseLock.wait(SPOOL_DRAIN_INTERVAL);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+				// The socket is not idle, it is held back by the app
+				clientSocket.mLastReceiveTime = System.currentTimeMillis();
+			}
+		}
+	}
+
+	// Runs in the timer thread, after a resume
+	public void drainSpools() {
+		for (InboundSpool spool : this.mSpools.values()) {
+			if (this.mBackground) {
+				return;
+			}
+
+			try {
+				this.drainSpool(spool);
+			} catch (IOException e) {
+				Log.e(TAG, "drainSpool", e);
+				spool.close();
+				this.mSpools.remove(spool.mSocketId, spool);
+				this.sendReceiveErrorResult(spool.mSocketId, "Background buffer failed");
+				continue;
+			}
+
+			if (spool.closeIfEmpty()) {
+				this.mSpools.remove(spool.mSocketId, spool);
+			}
+		}
+
+		synchronized (this.mSpools) {
+			if (this.mSpools.isEmpty()) {
+				this.stopSpoolDrain();
+			}
+		}
+	}
+
+	public void drainSpool(InboundSpool spool) throws IOException {
+		byte[] batch = spool.mCoalesce ? this.mBufferPool.acquire(SPOOL_DRAIN_BATCH_SIZE) : null;
+		int batchLength = 0;
+		int remaining = SPOOL_DRAIN_SIZE;
+		InboundSpool.Record record;
+
+		try {
+			while ((remaining > 0) && ((record = spool.poll()) != null)) {
+				if (record.mErrorMessage != null) {
+					if (batchLength > 0) {
+						this.dispatchReceive(spool.mSocketId, batch, 0, batchLength);
+						batchLength = 0;
+					}
+					this.sendReceiveErrorResult(spool.mSocketId, record.mErrorMessage);
+					continue;
+				}
+
+				remaining -= record.mData.length;
+
+				if (batch == null) {
+					this.dispatchReceive(spool.mSocketId, record.mData, 0, record.mData.length);
+					continue;
+				}
+
+				// Join the data of consecutive records, to deliver fewer and larger onReceive events
+				if (batchLength + record.mData.length > batch.length) {
+					this.dispatchReceive(spool.mSocketId, batch, 0, batchLength);
+					batchLength = 0;
+				}
+
+				if (record.mData.length >= batch.length) {
+					this.dispatchReceive(spool.mSocketId, record.mData, 0, record.mData.length);
+				} else {
+					System.arraycopy(record.mData, 0, batch, batchLength, record.mData.length);
+					batchLength += record.mData.length;
+				}
+			}
+
+			if (batchLength > 0) {
+				this.dispatchReceive(spool.mSocketId, batch, 0, batchLength);
+			}
+		} finally {
+			if (batch != null) {
+				this.mBufferPool.release(batch);
+			}
+		}
+	}
+
+	public void stopSpoolDrain() {
+		if (this.mSpoolDrain != null) {
+			this.mSpoolDrain.cancel(false);
+			this.mSpoolDrain = null;
+		}
+	}
+
+	public void closeSpools() {
+		synchronized (this.mSpools) {
+			this.stopSpoolDrain();
+		}
+
+		for (InboundSpool spool : this.mSpools.values()) {
+			spool.close();
+			this.mSpools.remove(spool.mSocketId, spool);
+		}
+	}
+
+	public void deleteSpoolFiles() {
+		File[] files = this.mSpoolDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	// Accepts both file paths and file:// URLs
+	public File getFile(String path) throws IOException {
+		if (path.startsWith("file:")) {
+			try {
+				return new File(new URI(path));
+			} catch (URISyntaxException e) {
+				throw new IOException("Invalid path: " + path);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid path: " + path);
+			}
+		}
+
+		return new File(path);
+	}
+
+	public void sendFileProgress(CallbackContext callbackContext, long bytesTransferred, long length, boolean done) {
+		try {
+			JSONObject info = new JSONObject();
+			info.put("bytesTransferred", bytesTransferred);
+			info.put("length", length);
+			info.put("done", done);
+			PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, info);
+			pluginResult.setKeepCallback(!done);
+			this.sendEvent(callbackContext, pluginResult);
+		} catch (JSONException e) {}
+	}
+
+	// Runs in its own thread, and queues the file in the writer lane of the socket, FILE_CHUNKS_IN_FLIGHT chunks at a time
+	public void sendFile(ClientSocket clientSocket, String path, CallbackContext callbackContext) {
+		final Semaphore chunksInFlight = new Semaphore(FILE_CHUNKS_IN_FLIGHT);
+		final AtomicLong bytesSent = new AtomicLong(0);
+		final AtomicReference<String> errorMessage = new AtomicReference<String>(null);
+		long progressReported = 0;
+		long length;
+		FileInputStream stream;
+		FileChannel channel;
+		ByteBuffer buffer = ByteBuffer.allocate(FILE_CHUNK_SIZE);
+		SocketSendData chunk;
+
+		try {
+			stream = new FileInputStream(this.getFile(path));
+			channel = stream.getChannel();
+			length = channel.size();
+		} catch (IOException e) {
+			this.sendEvent(callbackContext, new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+			return;
+		}
+
+		try {
+			while (errorMessage.get() == null) {
+				buffer.clear();
+				while (buffer.hasRemaining() && (channel.read(buffer) > 0)) {
+				}
+				if (buffer.position() == 0) {
+					break;
+				}
+
+				chunksInFlight.acquire();
+				chunk = new SocketSendData(callbackContext, Arrays.copyOf(buffer.array(), buffer.position())) {
+					@Override
+					public void onSent() {
+						bytesSent.addAndGet(this.mData.length);
+						chunksInFlight.release();
+					}
+
+					@Override
+					public void onError(String message) {
+						errorMessage.compareAndSet(null, message);
+						chunksInFlight.release();
+					}
+				};
+
+				// The control and normal data of the socket are sent in the middle of the file
+				chunk.mLane = SendQueue.BULK;
+				// The chunks still count in the buffered amount, so that the other sends see the full buffer
+				chunk.mCheckWaterMark = false;
+				this.send(clientSocket, chunk);
+
+				if (bytesSent.get() - progressReported >= FILE_PROGRESS_INTERVAL) {
+					progressReported = bytesSent.get();
+					this.sendFileProgress(callbackContext, progressReported, length, false);
+				}
+			}
+
+			// Wait for the last chunks to be written
+			chunksInFlight.acquire(FILE_CHUNKS_IN_FLIGHT);
+		} catch (IOException e) {
+			errorMessage.compareAndSet(null, e.getMessage());
+		} catch (InterruptedException e) {
+			errorMessage.compareAndSet(null, "Interrupted");
+		}
+
+		try {
+			stream.close();
+		} catch (IOException e) {}
+
+		if (errorMessage.get() != null) {
+			this.sendEvent(callbackContext, new PluginResult(PluginResult.Status.ERROR, errorMessage.get()));
+		} else {
+			this.sendFileProgress(callbackContext, bytesSent.get(), length, true);
+		}
+	}
+
+	public void receiveToFile(ClientSocket clientSocket, String path, long length, CallbackContext callbackContext) {
+		FileReceive fileReceive;
+
+		if (length < 0) {
+			callbackContext.error("Invalid length: " + length);
+			return;
+		}
+
+		try {
+			fileReceive = new FileReceive(callbackContext, new FileOutputStream(this.getFile(path)).getChannel(), length);
+		} catch (IOException e) {
+			callbackContext.error(e.getMessage());
+			return;
+		}
+
+		if (length == 0) {
+			this.finishFileReceive(fileReceive);
+			return;
+		}
+
+		// The read loop closes the socket before taking the last mFileReceive under the lock
+		synchronized (clientSocket) {
+			if (clientSocket.mClosed || (clientSocket.mFileReceive != null)) {
+				try {
+					fileReceive.mChannel.close();
+				} catch (IOException e) {}
+				callbackContext.error(clientSocket.mClosed ? "Socket closed" : "A file is already being received");
+				return;
+			}
+
+			// The data received before the file is delivered to onReceive first
+			if (clientSocket.mReceiveBatch != null) {
+				this.flushReceiveBatch(clientSocket);
+			}
+
+			clientSocket.mFileReceive = fileReceive;
+		}
+	}
+
+	// Runs in the read loop thread. Returns the number of bytes of data that belong to the file.
+	public int writeFileReceive(ClientSocket clientSocket, FileReceive fileReceive, byte[] data, int length) {
+		int count = (int) Math.min(length, fileReceive.mLength - fileReceive.mReceived);
+
+		if (fileReceive.mErrorMessage == null) {
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+				while (buffer.hasRemaining()) {
+					fileReceive.mChannel.write(buffer);
+				}
+			} catch (IOException e) {
+				fileReceive.mErrorMessage = e.getMessage();
+			}
+		}
+		fileReceive.mReceived += count;
+
+		if (fileReceive.mReceived == fileReceive.mLength) {
+			clientSocket.mFileReceive = null;
+			this.finishFileReceive(fileReceive);
+		} else if ((fileReceive.mErrorMessage == null) && (fileReceive.mReceived - fileReceive.mProgressReported >= FILE_PROGRESS_INTERVAL)) {
+			fileReceive.mProgressReported = fileReceive.mReceived;
+			this.sendFileProgress(fileReceive.mCallbackContext, fileReceive.mReceived, fileReceive.mLength, false);
+		}
+
+		return count;
+	}
+
+	public void finishFileReceive(FileReceive fileReceive) {
+		try {
+			fileReceive.mChannel.close();
+		} catch (IOException e) {
+			if (fileReceive.mErrorMessage == null) {
+				fileReceive.mErrorMessage = e.getMessage();
+			}
+		}
+
+		if (fileReceive.mErrorMessage != null) {
+			this.sendEvent(fileReceive.mCallbackContext, new PluginResult(PluginResult.Status.ERROR, fileReceive.mErrorMessage));
+		} else {
+			this.sendFileProgress(fileReceive.mCallbackContext, fileReceive.mReceived, fileReceive.mLength, true);
+		}
+	}
+
+	public void acceptLoop(ServerSocket serverSocket) {
+		int serverSocketId = serverSocket.mSocketId;
+		ClientSocket clientSocket;
+		Transport.Connection socket;
+		ArrayList<PluginResult> multipartMessages;
+		PluginResult pluginResult;
+
+		try {
+			while (true) {
+				socket = serverSocket.mListener.accept();
+				if (socket == null) {
+					throw new IOException("Disconnected");
+				}
+
+				if (serverSocket.mSelfTest) {
+					this.newSelfTestResponderThread(socket);
+					serverSocket.mMetrics.mAccepted.incrementAndGet();
+					continue;
+				}
+
+				try {
+					clientSocket = this.addClientSocket(socket, null, serverSocket.mOptions);
+				} catch (IOException e) {
+					// Refuse this connection, but keep accepting the next ones
+					Log.e(TAG, "acceptLoop -- " + e.getMessage());
+					continue;
+				}
+				serverSocket.mMetrics.mAccepted.incrementAndGet();
+
+				multipartMessages = new ArrayList<PluginResult>();
+				multipartMessages.add(new PluginResult(PluginResult.Status.OK, serverSocketId));
+				multipartMessages.add(new PluginResult(PluginResult.Status.OK, clientSocket.mSocketId));
+				pluginResult = new PluginResult(PluginResult.Status.OK, multipartMessages);
+				pluginResult.setKeepCallback(true);
+				this.sendEvent(this.mContextForAccept, pluginResult);
+
+				this.newReadLoopThread(clientSocket);
+			}
+		} catch (IOException e) {
+			serverSocket.mMetrics.mAcceptErrors.incrementAndGet();
+
+			try {
+				JSONObject info = new JSONObject();
+				info.put("socketId", serverSocketId);
+				info.put("errorMessage", e.getMessage());
+				pluginResult = new PluginResult(PluginResult.Status.OK, info);
+				pluginResult.setKeepCallback(true);
+				this.sendEvent(this.mContextForAcceptError, pluginResult);
+			} catch (JSONException ex) {}
+		}
+
+		try {
+			serverSocket.mListener.close();
+		} catch (IOException e) {}
 
 		// The socket has been closed, remove its socketId
-		this.mServerSockets.remove(serverSocketId);
+		this.mServerSockets.remove(serverSocketId, serverSocket);
+	}
+
+	public void startReaper() {
+		synchronized (this.mClientSockets) {
+			if (this.mReaper != null) {
+				return;
+			}
+
+			this.mReaper = this.mScheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					reapSockets();
+				}
+			}, REAPER_INTERVAL, REAPER_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// Runs in the timer thread. The half-open links never fail a read, so that without the reaper
+	// their read loop threads would stay blocked forever.
+	public void reapSockets() {
+		long now = System.currentTimeMillis();
+
+		for (ClientSocket clientSocket : this.mClientSockets.values()) {
+			// A paused socket does not read, and a reconnecting socket has no link to probe
+			if (clientSocket.mClosed || clientSocket.mPaused || clientSocket.mReconnecting) {
+				continue;
+			}
+
+			// Neither does a socket whose background buffer is full
+			InboundSpool spool = this.mSpools.get(clientSocket.mSocketId);
+			if ((spool != null) && spool.isFull()) {
+				continue;
+			}
+
+			if ((clientSocket.mIdleTimeout > 0) && (now - clientSocket.mLastReceiveTime >= clientSocket.mIdleTimeout)) {
+				this.reapSocket(clientSocket, IDLE_TIMEOUT_REASON);
+			} else if ((clientSocket.mKeepAliveData != null) && (now - clientSocket.mLastWriteTime >= clientSocket.mKeepAliveInterval)) {
+				this.sendKeepAlive(clientSocket);
+			}
+		}
+	}
+
+	public void reapSocket(ClientSocket clientSocket, String reason) {
+		// A supervised socket only drops the link, and then reconnects
+		if (clientSocket.mReconnect) {
+			clientSocket.mLastReceiveTime = System.currentTimeMillis();
+			try {
+				clientSocket.mSocket.close();
+			} catch (IOException e) {}
+			return;
+		}
+
+		clientSocket.mCloseReason = reason;
+		if (this.mClientSockets.remove(clientSocket.mSocketId, clientSocket)) {
+			try {
+				this.closeClientSocket(clientSocket);
+			} catch (IOException e) {}
+		}
+	}
+
+	public void sendKeepAlive(final ClientSocket clientSocket) {
+		SocketSendData sendData = new SocketSendData(null, clientSocket.mKeepAliveData) {
+			@Override
+			public void onSent() {
+			}
+
+			@Override
+			public void onError(String errorMessage) {
+				if (!clientSocket.mClosed) {
+					reapSocket(clientSocket, KEEPALIVE_FAILED_REASON);
+				}
+			}
+		};
+
+		// Probe again only after the next interval, even if the write is still queued
+		clientSocket.mLastWriteTime = System.currentTimeMillis();
+		sendData.mLane = SendQueue.CONTROL;
+		this.send(clientSocket, sendData);
+	}
+
+	public JSONObject getResourceUsage() throws JSONException {
+		JSONObject usage = new JSONObject();
+		long spooledBytes = 0;
+
+		for (InboundSpool spool : this.mSpools.values()) {
+			synchronized (spool) {
+				spooledBytes += spool.mSize;
+			}
+		}
+
+		usage.put("clientSockets", this.mClientSockets.size());
+		usage.put("serverSockets", this.mServerSockets.size());
+		usage.put("maxSockets", this.mMaxSockets);
+		usage.put("ioThreads", this.mIoExecutor.getPoolSize());
+		usage.put("activeIoThreads", this.mIoExecutor.getActiveCount());
+		usage.put("maxIoThreads", this.mIoExecutor.getMaximumPoolSize());
+		usage.put("pooledBytes", this.mBufferPool.mPooledBytes.get());
+		usage.put("spooledBytes", spooledBytes);
+		usage.put("pendingEvents", this.mEvents.mNext.get() - this.mEvents.mDispatched);
+
+		return usage;
+	}
+
+	public void newSelfTestResponderThread(final Transport.Connection socket) {
+		this.mSelfTestConnections.add(socket);
+
+		try {
+			this.mIoExecutor.execute(new Runnable() {
+				public void run() {
+					try {
+						SelfTest.respond(socket);
+					} catch (IOException e) {
+						Log.e(TAG, "SelfTest respond -- " + e.getMessage());
+					}
+
+					closeSelfTestConnection(socket);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.closeSelfTestConnection(socket);
+		}
+	}
+
+	public void closeSelfTestConnection(Transport.Connection socket) {
+		this.mSelfTestConnections.remove(socket);
+
+		try {
+			socket.close();
+		} catch (IOException e) {}
+	}
+
+	public void newReadLoopThread(final ClientSocket clientSocket) {
+		try {
+			this.mIoExecutor.execute(new Runnable() {
+				public void run() {
+					readLoop(clientSocket);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.sendReceiveError(clientSocket.mSocketId, "Too many sockets");
+			this.mClientSockets.remove(clientSocket.mSocketId, clientSocket);
+
+			try {
+				this.closeClientSocket(clientSocket);
+			} catch (IOException ex) {}
+		}
 	}
 
-	public void newReadLoopThread(final int socketId, final BluetoothSocket socket) {
-		cordova.getThreadPool().execute(new Runnable() {
+	public void newWriteLoopThread(final ClientSocket clientSocket) {
+		this.mIoExecutor.execute(new Runnable() {
 			public void run() {
-				readLoop(socketId, socket);
+				writeLoop(clientSocket);
 			}
 		});
 	}
 
-	public void writeLoop() {
+	public void writeLoop(ClientSocket clientSocket) {
 		SocketSendData sendData;
+		SocketSendData nextSendData;
+		Transport.Connection socket;
+		int linkGeneration;
+		int deflaterGeneration = clientSocket.mLinkGeneration;
+		ArrayList<SocketSendData> gathered = new ArrayList<SocketSendData>();
+		byte[] gatherBuffer = this.mBufferPool.acquire(MAX_GATHER_SIZE);
+		byte[] writeData;
+		int writeOffset;
+		int writeLength;
+		int gatherLength;
+		int bulkLength;
+		int nextLength;
+		int length;
+		int offset;
 
 		try {
-			while (true) {
-				sendData = this.mSendQueue.take();
+			while (!clientSocket.mClosed) {
+				sendData = clientSocket.mSendQueue.take();
+				if (sendData == null) {
+					break;
+				}
 
-				try {
-					sendData.mSocket.getOutputStream().write(sendData.mData);
-					sendData.mCallbackContext.success(sendData.mData.length);
-				} catch (IOException e) {
-					sendData.mCallbackContext.error(e.getMessage());
+				// Gather the data already queued for this socket into a single write, in priority order.
+				// A write holds at most a chunk of bulk data, so that the data of a higher priority
+				// queued in the meantime waits at most for the write of a chunk.
+				gathered.add(sendData);
+				gatherLength = sendData.getWriteLength();
+				bulkLength = (sendData.mLane == SendQueue.BULK) ? gatherLength : 0;
+				while ((nextSendData = clientSocket.mSendQueue.peek()) != null) {
+					nextLength = nextSendData.mData.length - nextSendData.mOffset;
+					if ((gatherLength + nextLength > MAX_GATHER_SIZE) || ((nextSendData.mLane == SendQueue.BULK) && (bulkLength + nextLength > BULK_CHUNK_SIZE))) {
+						break;
+					}
+
+					// Data of a higher priority may have been queued after the peek
+					if (clientSocket.mSendQueue.remove(nextSendData)) {
+						gathered.add(nextSendData);
+						gatherLength += nextLength;
+						if (nextSendData.mLane == SendQueue.BULK) {
+							bulkLength += nextLength;
+						}
+					}
+				}
+
+				if (gathered.size() > 1) {
+					offset = 0;
+					for (SocketSendData data : gathered) {
+						length = data.getWriteLength();
+						System.arraycopy(data.mData, data.mOffset, gatherBuffer, offset, length);
+						offset += length;
+					}
+				}
+
+				while (true) {
+					synchronized (clientSocket.mPauseLock) {
+						socket = clientSocket.mSocket;
+						linkGeneration = clientSocket.mLinkGeneration;
+					}
+
+					if (gathered.size() == 1) {
+						writeData = sendData.mData;
+						writeOffset = sendData.mOffset;
+					} else {
+						writeData = gatherBuffer;
+						writeOffset = 0;
+					}
+					writeLength = gatherLength;
+
+					if (clientSocket.mDeflater != null) {
+						// A new connection starts a new compressed stream
+						if (linkGeneration != deflaterGeneration) {
+							clientSocket.mDeflater.reset();
+							deflaterGeneration = linkGeneration;
+						}
+
+						writeLength = this.deflate(clientSocket, writeData, writeOffset, writeLength);
+						writeData = clientSocket.mDeflateBuffer;
+						writeOffset = 0;
+					}
+
+					try {
+						clientSocket.mMetrics.mWrites.incrementAndGet();
+						socket.getOutputStream().write(writeData, writeOffset, writeLength);
+						clientSocket.mLastWriteTime = System.currentTimeMillis();
+
+						// Each send has its own callback context, so that every gathered send still gets
+						// its own result. Gathering saves writes to the socket, not results to the bridge.
+						for (SocketSendData data : gathered) {
+							length = data.getWriteLength();
+							data.mOffset += length;
+							clientSocket.mMetrics.recordSent(length, data.mQueuedTime, data.mOffset == data.mData.length);
+							this.sendDone(clientSocket, length);
+
+							if (data.mOffset == data.mData.length) {
+								data.onSent();
+							} else if (!clientSocket.mSendQueue.requeue(data, data.mLane)) {
+								this.sendDone(clientSocket, data.mData.length - data.mOffset);
+								data.onError("Socket closed");
+							}
+						}
+					} catch (IOException e) {
+						clientSocket.mMetrics.mWriteErrors.incrementAndGet();
+
+						// A supervised socket writes the same data again on the new connection,
+						// while the data sent in the meantime waits in the send queue
+						if (clientSocket.mReconnect && !clientSocket.mClosed && this.waitForReconnect(clientSocket, socket, linkGeneration)) {
+							continue;
+						}
+
+						for (SocketSendData data : gathered) {
+							this.sendDone(clientSocket, data.mData.length - data.mOffset);
+							data.onError(e.getMessage());
+						}
+					}
+
+					break;
 				}
+
+				gathered.clear();
 			}
 		} catch (InterruptedException e) {}
+
+		// Fail all the data that could not be sent
+		while ((sendData = clientSocket.mSendQueue.poll()) != null) {
+			this.sendDone(clientSocket, sendData.mData.length - sendData.mOffset);
+			sendData.onError("Socket closed");
+		}
+
+		if (clientSocket.mDeflater != null) {
+			clientSocket.mDeflater.end();
+		}
+
+		this.mBufferPool.release(gatherBuffer);
+	}
+
+	public void sendToMany(JSONArray socketIds, byte[] data, CallbackContext callbackContext) throws JSONException {
+		final SendToMany sendToMany = new SendToMany(callbackContext, socketIds.length());
+
+		if (socketIds.length() == 0) {
+			callbackContext.success(new JSONArray());
+			return;
+		}
+
+		for (int i = 0; i < socketIds.length(); i++) {
+			final int index = i;
+			final int socketId = socketIds.getInt(i);
+			ClientSocket clientSocket = this.mClientSockets.get(socketId);
+			if (clientSocket == null) {
+				sendToMany.done(index, socketId, 0, "Invalid socketId");
+				continue;
+			}
+
+			this.send(clientSocket, new SocketSendData(callbackContext, data) {
+				@Override
+				public void onSent() {
+					sendToMany.done(index, socketId, this.mData.length, null);
+				}
+
+				@Override
+				public void onError(String errorMessage) {
+					sendToMany.done(index, socketId, 0, errorMessage);
+				}
+			});
+		}
+	}
+
+	// Returns the length of the compressed data in mDeflateBuffer
+	public int deflate(ClientSocket clientSocket, byte[] data, int offset, int length) {
+		Deflater deflater = clientSocket.mDeflater;
+		int deflatedLength = 0;
+
+		if (clientSocket.mDeflateBuffer == null) {
+			clientSocket.mDeflateBuffer = new byte[MAX_GATHER_SIZE];
+		}
+
+		// SYNC_FLUSH makes all the data available to the peer at the end of each write
+		deflater.setInput(data, offset, length);
+		while (true) {
+			deflatedLength += deflater.deflate(clientSocket.mDeflateBuffer, deflatedLength, clientSocket.mDeflateBuffer.length - deflatedLength, Deflater.SYNC_FLUSH);
+			if (deflatedLength < clientSocket.mDeflateBuffer.length) {
+				break;
+			}
+
+			clientSocket.mDeflateBuffer = Arrays.copyOf(clientSocket.mDeflateBuffer, clientSocket.mDeflateBuffer.length * 2);
+		}
+
+		return deflatedLength;
+	}
+
+	public void send(ClientSocket clientSocket, SocketSendData sendData) {
+		if (clientSocket.mFrameCodec != null) {
+			try {
+				sendData.mData = clientSocket.mFrameCodec.encode(sendData.mData);
+			} catch (IOException e) {
+				sendData.onError(e.getMessage());
+				return;
+			}
+		}
+
+		// The send operation occurs in the writer thread of the socket.
+		// The control data is not held back by the other data queued before it.
+		if ((sendData.mLane != SendQueue.CONTROL) && sendData.mCheckWaterMark && (clientSocket.mBufferedAmount.get() >= clientSocket.mSendHighWaterMark)) {
+			clientSocket.mDrainPending = true;
+			clientSocket.mMetrics.mSendsRejected.incrementAndGet();
+			sendData.onError("Send buffer full");
+			return;
+		}
+
+		sendData.mQueuedTime = System.nanoTime();
+
+		if (clientSocket.mBufferedAmount.addAndGet(sendData.mData.length) >= clientSocket.mSendHighWaterMark) {
+			clientSocket.mDrainPending = true;
+		}
+
+		// The bulk data takes a single place in the queue, however many chunks it is written in.
+		// The writer thread fails the data left in the queue when it is closed, so that only
+		// the data that has not been queued is failed here
+		if (!clientSocket.mSendQueue.offer(sendData, sendData.mLane)) {
+			this.sendDone(clientSocket, sendData.mData.length);
+			if (clientSocket.mSendQueue.isClosed()) {
+				sendData.onError("Socket closed");
+			} else {
+				clientSocket.mMetrics.mSendsRejected.incrementAndGet();
+				sendData.onError("Send queue full");
+			}
+		}
+	}
+
+	// Called with the length of the data that has been written, or that has failed
+	public void sendDone(ClientSocket clientSocket, int length) {
+		long bufferedAmount = clientSocket.mBufferedAmount.addAndGet(-length);
+
+		if (clientSocket.mDrainPending && (bufferedAmount <= clientSocket.mSendLowWaterMark) && !clientSocket.mClosed) {
+			clientSocket.mDrainPending = false;
+
+			try {
+				JSONObject info = new JSONObject();
+				info.put("socketId", clientSocket.mSocketId);
+				info.put("bufferedAmount", bufferedAmount);
+				PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, info);
+				pluginResult.setKeepCallback(true);
+				this.sendEvent(this.mContextForDrain, pluginResult);
+			} catch (JSONException e) {}
+		}
+	}
+
+	public void stopWriteLoop(ClientSocket clientSocket) {
+		clientSocket.mClosed = true;
+		clientSocket.mSendQueue.close();
 	}
 
 	public void startDiscovery(CallbackContext callbackContext) {
+		// Each discovery reports all the devices that it finds, once
+		this.mDeviceRegistry.resetReported();
+
 		if (!this.mDeviceAddedRegistered) {
 			IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
 			cordova.getActivity().registerReceiver(this.mReceiver, filter);
 			this.mDeviceAddedRegistered = true;
+			this.mReceiverRegistered = true;
 		}
 
 		if (this.mBluetoothAdapter.startDiscovery()) {
@@ -0,0 +1,297 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Measures a link without JavaScript: the tester sends pings to the responder and times the pongs,
+// then sends data to the responder, and receives data from it, for a given time in each direction.
+// Each message is a byte with the type of the message, followed by its fields, all big endian.
+public class SelfTest {
+	// length (int), payload. The responder sends the payload back in a PONG.
+	public static final int PING = 1;
+	public static final int PONG = 2;
+	// length (int), data
+	public static final int UPLOAD = 3;
+	// The responder answers with an UPLOAD_RESULT
+	public static final int UPLOAD_END = 4;
+	// bytes (long), nanoseconds (long), counted from the end of the first UPLOAD
+	public static final int UPLOAD_RESULT = 5;
+	// length (int), duration in milliseconds (int). The responder sends DOWNLOAD_DATA for the duration,
+	// then DOWNLOAD_END.
+	public static final int DOWNLOAD = 6;
+	// length (int), data
+	public static final int DOWNLOAD_DATA = 7;
+	public static final int DOWNLOAD_END = 8;
+
+	public static final int DEFAULT_PINGS = 100;
+	public static final int DEFAULT_PING_SIZE = 16;
+	public static final int DEFAULT_DURATION = 3000;
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+	public static final int MAX_MESSAGE_SIZE = 65536;
+	public static final int MAX_DURATION = 60000;
+
+	public int mPings;
+	public int mPingSize;
+	// In milliseconds, for each direction. The throughput is not measured when it is 0.
+	public int mDuration;
+	public int mChunkSize;
+
+	public SelfTest(JSONObject options) {
+		this.mPings = (options != null) ? options.optInt("pings", DEFAULT_PINGS) : DEFAULT_PINGS;
+		this.mPingSize = (options != null) ? options.optInt("pingSize", DEFAULT_PING_SIZE) : DEFAULT_PING_SIZE;
+		this.mDuration = (options != null) ? options.optInt("duration", DEFAULT_DURATION) : DEFAULT_DURATION;
+		this.mChunkSize = (options != null) ? options.optInt("chunkSize", DEFAULT_CHUNK_SIZE) : DEFAULT_CHUNK_SIZE;
+
+		if (this.mPings < 0) {
+			throw new IllegalArgumentException("Invalid pings: " + this.mPings);
+		}
+		if ((this.mPingSize < 1) || (this.mPingSize > MAX_MESSAGE_SIZE)) {
+			throw new IllegalArgumentException("Invalid pingSize: " + this.mPingSize);
+		}
+		if ((this.mDuration < 0) || (this.mDuration > MAX_DURATION)) {
+			throw new IllegalArgumentException("Invalid duration: " + this.mDuration);
+		}
+		if ((this.mChunkSize < 1) || (this.mChunkSize > MAX_MESSAGE_SIZE)) {
+			throw new IllegalArgumentException("Invalid chunkSize: " + this.mChunkSize);
+		}
+	}
+
+	// Runs in the thread of an accepted connection, until the tester disconnects
+	public static void respond(Transport.Connection connection) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream(), MAX_MESSAGE_SIZE));
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), MAX_MESSAGE_SIZE));
+		byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+		long uploadBytes = 0;
+		long uploadStart = 0;
+		int length;
+
+		while (true) {
+			int type = input.read();
+			if (type < 0) {
+				return;
+			}
+
+			switch (type) {
+				case PING:
+					length = readLength(input);
+					input.readFully(buffer, 0, length);
+					output.writeByte(PONG);
+					output.writeInt(length);
+					output.write(buffer, 0, length);
+					output.flush();
+					break;
+				case UPLOAD:
+					length = readLength(input);
+					input.readFully(buffer, 0, length);
+					// The time starts when the first chunk has been received, so that the first chunk is not counted
+					if (uploadStart == 0) {
+						uploadStart = System.nanoTime();
+					} else {
+						uploadBytes += length;
+					}
+					break;
+				case UPLOAD_END:
+					output.writeByte(UPLOAD_RESULT);
+					output.writeLong(uploadBytes);
+					output.writeLong((uploadStart != 0) ? System.nanoTime() - uploadStart : 0);
+					output.flush();
+					uploadBytes = 0;
+					uploadStart = 0;
+					break;
+				case DOWNLOAD:
+					length = readLength(input);
+					long deadline = System.nanoTime() + readDuration(input) * 1000000L;
+					Arrays.fill(buffer, 0, length, (byte) 0x55);
+					do {
+						output.writeByte(DOWNLOAD_DATA);
+						output.writeInt(length);
+						output.write(buffer, 0, length);
+					} while (System.nanoTime() - deadline < 0);
+					output.writeByte(DOWNLOAD_END);
+					output.flush();
+					break;
+				default:
+					throw new IOException("Invalid self-test message");
+			}
+		}
+	}
+
+	public static int readLength(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if ((length < 0) || (length > MAX_MESSAGE_SIZE)) {
+			throw new IOException("Invalid self-test message");
+		}
+
+		return length;
+	}
+
+	// The duration comes from the peer, so that it is held to the same limit as the one of the tester
+	public static int readDuration(DataInputStream input) throws IOException {
+		int duration = input.readInt();
+		if ((duration < 0) || (duration > MAX_DURATION)) {
+			throw new IOException("Invalid self-test message");
+		}
+
+		return duration;
+	}
+
+	// Runs the whole test on a connection to a responder, and returns the results
+	public JSONObject run(Transport.Connection connection) throws IOException, JSONException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream(), MAX_MESSAGE_SIZE));
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), MAX_MESSAGE_SIZE));
+		JSONObject results = new JSONObject();
+
+		try {
+			results.put("rtt", this.runPings(input, output));
+			if (this.mDuration > 0) {
+				results.put("upload", this.runUpload(input, output));
+				results.put("download", this.runDownload(input, output));
+			}
+		} catch (EOFException e) {
+			throw new IOException("Disconnected");
+		}
+
+		return results;
+	}
+
+	public JSONObject runPings(DataInputStream input, DataOutputStream output) throws IOException, JSONException {
+		byte[] payload = new byte[this.mPingSize];
+		byte[] pong = new byte[this.mPingSize];
+		long[] rtts = new long[this.mPings];
+		long start;
+		long total = 0;
+
+		for (int i = 0; i < this.mPings; i++) {
+			payload[0] = (byte) i;
+
+			start = System.nanoTime();
+			output.writeByte(PING);
+			output.writeInt(payload.length);
+			output.write(payload);
+			output.flush();
+
+			if ((input.read() != PONG) || (input.readInt() != payload.length)) {
+				throw new IOException("Invalid self-test message");
+			}
+			input.readFully(pong);
+			rtts[i] = System.nanoTime() - start;
+			total += rtts[i];
+
+			if (pong[0] != payload[0]) {
+				throw new IOException("Invalid self-test message");
+			}
+		}
+
+		// The round trip times are in milliseconds
+		JSONObject rtt = new JSONObject();
+		rtt.put("count", this.mPings);
+		if (this.mPings > 0) {
+			Arrays.sort(rtts);
+			rtt.put("min", toMillis(rtts[0]));
+			rtt.put("mean", toMillis(total / this.mPings));
+			rtt.put("p50", toMillis(percentile(rtts, 50)));
+			rtt.put("p90", toMillis(percentile(rtts, 90)));
+			rtt.put("p99", toMillis(percentile(rtts, 99)));
+			rtt.put("max", toMillis(rtts[this.mPings - 1]));
+		}
+
+		return rtt;
+	}
+
+	public JSONObject runUpload(DataInputStream input, DataOutputStream output) throws IOException, JSONException {
+		byte[] chunk = new byte[this.mChunkSize];
+		long deadline = System.nanoTime() + this.mDuration * 1000000L;
+
+		Arrays.fill(chunk, (byte) 0xaa);
+		do {
+			output.writeByte(UPLOAD);
+			output.writeInt(chunk.length);
+			output.write(chunk);
+		} while (System.nanoTime() - deadline < 0);
+		output.writeByte(UPLOAD_END);
+		output.flush();
+
+		// The responder measures the time, as the data may still be on its way when the tester stops writing
+		if (input.read() != UPLOAD_RESULT) {
+			throw new IOException("Invalid self-test message");
+		}
+		long bytes = input.readLong();
+		long nanos = input.readLong();
+
+		return getThroughput(bytes, nanos);
+	}
+
+	public JSONObject runDownload(DataInputStream input, DataOutputStream output) throws IOException, JSONException {
+		byte[] chunk = new byte[MAX_MESSAGE_SIZE];
+		long bytes = 0;
+		long start = 0;
+		int type;
+		int length;
+
+		output.writeByte(DOWNLOAD);
+		output.writeInt(this.mChunkSize);
+		output.writeInt(this.mDuration);
+		output.flush();
+
+		while ((type = input.read()) == DOWNLOAD_DATA) {
+			length = readLength(input);
+			input.readFully(chunk, 0, length);
+			// As for the upload, the time starts when the first chunk has been received
+			if (start == 0) {
+				start = System.nanoTime();
+			} else {
+				bytes += length;
+			}
+		}
+
+		if (type != DOWNLOAD_END) {
+			throw new IOException("Invalid self-test message");
+		}
+
+		return getThroughput(bytes, (start != 0) ? System.nanoTime() - start : 0);
+	}
+
+	// The goodput is in bytes per second, and the duration in milliseconds
+	public static JSONObject getThroughput(long bytes, long nanos) throws JSONException {
+		JSONObject throughput = new JSONObject();
+
+		throughput.put("bytes", bytes);
+		throughput.put("duration", toMillis(nanos));
+		throughput.put("goodput", (nanos > 0) ? (long) (bytes * 1e9 / nanos) : 0);
+
+		return throughput;
+	}
+
+	// Nearest rank percentile of the sorted values
+	public static long percentile(long[] sorted, int percent) {
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(rank - 1, 0)];
+	}
+
+	// Rounds to the microsecond
+	public static double toMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+}
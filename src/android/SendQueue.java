@@ -0,0 +1,126 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.util.ArrayDeque;
+
+// The send queue of a socket, with a FIFO lane for each priority.
+// The writer always takes from the highest priority lane that is not empty.
+public class SendQueue<E> {
+	public static final int CONTROL = 0;
+	public static final int NORMAL = 1;
+	public static final int BULK = 2;
+	public static final int LANES = 3;
+
+	public ArrayDeque<E>[] mLanes;
+	// The capacity is shared by all the lanes
+	public int mCapacity;
+	public int mSize = 0;
+	public boolean mClosed = false;
+
+	public SendQueue(int capacity) {
+		this.mCapacity = capacity;
+		this.mLanes = newLanes();
+		for (int i = 0; i < LANES; i++) {
+			this.mLanes[i] = new ArrayDeque<E>();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <E> ArrayDeque<E>[] newLanes() {
+		return (ArrayDeque<E>[]) new ArrayDeque<?>[LANES];
+	}
+
+	// Returns false if the queue is full, or closed
+	public synchronized boolean offer(E element, int lane) {
+		if (this.mClosed || (this.mSize >= this.mCapacity)) {
+			return false;
+		}
+
+		this.mLanes[lane].addLast(element);
+		this.mSize++;
+		this.notifyAll();
+		return true;
+	}
+
+	// Puts an element that has just been taken back at the head of its lane, so that the writer can
+	// send the rest of it after the data of a higher priority. It is not checked against the capacity,
+	// as it was already in the queue. Returns false if the queue is closed.
+	public synchronized boolean requeue(E element, int lane) {
+		if (this.mClosed) {
+			return false;
+		}
+
+		this.mLanes[lane].addFirst(element);
+		this.mSize++;
+		this.notifyAll();
+		return true;
+	}
+
+	// Returns null once the queue has been closed
+	public synchronized E take() throws InterruptedException {
+		while ((this.mSize == 0) && !this.mClosed) {
+			this.wait();
+		}
+
+		return this.mClosed ? null : this.poll();
+	}
+
+	public synchronized E peek() {
+		for (int i = 0; i < LANES; i++) {
+			if (!this.mLanes[i].isEmpty()) {
+				return this.mLanes[i].peekFirst();
+			}
+		}
+
+		return null;
+	}
+
+	public synchronized E poll() {
+		for (int i = 0; i < LANES; i++) {
+			if (!this.mLanes[i].isEmpty()) {
+				this.mSize--;
+				return this.mLanes[i].pollFirst();
+			}
+		}
+
+		return null;
+	}
+
+	public synchronized boolean remove(E element) {
+		for (int i = 0; i < LANES; i++) {
+			if (this.mLanes[i].remove(element)) {
+				this.mSize--;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public synchronized int size() {
+		return this.mSize;
+	}
+
+	public synchronized boolean isClosed() {
+		return this.mClosed;
+	}
+
+	// Wakes up the writer, that then fails the elements left in the queue
+	public synchronized void close() {
+		this.mClosed = true;
+		this.notifyAll();
+	}
+}
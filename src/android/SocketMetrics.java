@@ -0,0 +1,119 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters updated by the read and write loops of a socket.
+// They are plain atomics, so that updating them does not need any lock.
+public class SocketMetrics {
+	public static final int HISTOGRAM_BUCKETS = 32;
+
+	// Bucket 0 counts the values equal to 0, and bucket i counts the values from 2^(i-1) to 2^i - 1.
+	// The last bucket counts all the values above.
+	public static class Histogram {
+		public AtomicLongArray mBuckets = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+		public void record(long value) {
+			int bucket = 64 - Long.numberOfLeadingZeros(Math.max(value, 0));
+			this.mBuckets.incrementAndGet(Math.min(bucket, HISTOGRAM_BUCKETS - 1));
+		}
+
+		public JSONArray toJSON() {
+			JSONArray buckets = new JSONArray();
+			int last = HISTOGRAM_BUCKETS - 1;
+
+			// Leave out the empty buckets at the end
+			while ((last >= 0) && (this.mBuckets.get(last) == 0)) {
+				last--;
+			}
+
+			for (int i = 0; i <= last; i++) {
+				buckets.put(this.mBuckets.get(i));
+			}
+
+			return buckets;
+		}
+	}
+
+	public long mCreatedTime = System.currentTimeMillis();
+	public volatile long mConnectDuration = 0;
+	public AtomicLong mBytesReceived = new AtomicLong(0);
+	public AtomicLong mBytesSent = new AtomicLong(0);
+	public AtomicLong mMessagesReceived = new AtomicLong(0);
+	public AtomicLong mMessagesSent = new AtomicLong(0);
+	public AtomicLong mWrites = new AtomicLong(0);
+	public AtomicLong mSendsRejected = new AtomicLong(0);
+	public AtomicLong mReadErrors = new AtomicLong(0);
+	public AtomicLong mWriteErrors = new AtomicLong(0);
+	public AtomicLong mReconnects = new AtomicLong(0);
+	// For server sockets
+	public AtomicLong mAccepted = new AtomicLong(0);
+	public AtomicLong mAcceptErrors = new AtomicLong(0);
+	// In bytes
+	public Histogram mReadSizes = new Histogram();
+	// In microseconds, from send to the completion of the write
+	public Histogram mSendLatency = new Histogram();
+
+	public void recordRead(int bytesRead) {
+		this.mBytesReceived.addAndGet(bytesRead);
+		this.mMessagesReceived.incrementAndGet();
+		this.mReadSizes.record(bytesRead);
+	}
+
+	// The chunks of a bulk send count as a single message, when the last one has been written
+	public void recordSent(int length, long queuedTime, boolean endOfMessage) {
+		this.mBytesSent.addAndGet(length);
+		if (endOfMessage) {
+			this.mMessagesSent.incrementAndGet();
+			this.mSendLatency.record((System.nanoTime() - queuedTime) / 1000);
+		}
+	}
+
+	public JSONObject toJSON() throws JSONException {
+		JSONObject metrics = new JSONObject();
+
+		metrics.put("uptime", System.currentTimeMillis() - this.mCreatedTime);
+		metrics.put("connectDuration", this.mConnectDuration);
+		metrics.put("bytesReceived", this.mBytesReceived.get());
+		metrics.put("bytesSent", this.mBytesSent.get());
+		metrics.put("messagesReceived", this.mMessagesReceived.get());
+		metrics.put("messagesSent", this.mMessagesSent.get());
+		metrics.put("writes", this.mWrites.get());
+		metrics.put("sendsRejected", this.mSendsRejected.get());
+		metrics.put("readErrors", this.mReadErrors.get());
+		metrics.put("writeErrors", this.mWriteErrors.get());
+		metrics.put("reconnects", this.mReconnects.get());
+		metrics.put("readSizeHistogram", this.mReadSizes.toJSON());
+		metrics.put("sendLatencyHistogram", this.mSendLatency.toJSON());
+
+		return metrics;
+	}
+
+	public JSONObject toServerJSON() throws JSONException {
+		JSONObject metrics = new JSONObject();
+
+		metrics.put("uptime", System.currentTimeMillis() - this.mCreatedTime);
+		metrics.put("accepted", this.mAccepted.get());
+		metrics.put("acceptErrors", this.mAcceptErrors.get());
+
+		return metrics;
+	}
+}
@@ -0,0 +1,138 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A stand-in for Bluetooth on top of localhost TCP.
+// connect reaches the listener of the same uuid in the same process, unless the address
+// is in the "host:port" format, in order to reach a listener in another process.
+// For the L2CAP types, the psm is the port of the listener.
+public class TcpLoopbackTransport implements Transport {
+	public static class TcpConnection implements Transport.Connection {
+		public Socket mSocket;
+
+		public TcpConnection(Socket socket) {
+			this.mSocket = socket;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return this.mSocket.getInputStream();
+		}
+
+		public OutputStream getOutputStream() throws IOException {
+			return this.mSocket.getOutputStream();
+		}
+
+		public boolean isConnected() {
+			return this.mSocket.isConnected() && !this.mSocket.isClosed();
+		}
+
+		public String getAddress() {
+			return this.mSocket.getInetAddress().getHostAddress() + ":" + this.mSocket.getPort();
+		}
+
+		public void close() throws IOException {
+			this.mSocket.close();
+		}
+	}
+
+	public class TcpListener implements Transport.Listener {
+		public UUID mUuid;
+		public ServerSocket mServerSocket;
+
+		// The uuid is null for the L2CAP types
+		public TcpListener(UUID uuid, ServerSocket serverSocket) {
+			this.mUuid = uuid;
+			this.mServerSocket = serverSocket;
+		}
+
+		public Transport.Connection accept() throws IOException {
+			Socket socket = this.mServerSocket.accept();
+			socket.setTcpNoDelay(true);
+			return new TcpConnection(socket);
+		}
+
+		public int getPsm() {
+			return (this.mUuid == null) ? this.mServerSocket.getLocalPort() : -1;
+		}
+
+		public void close() throws IOException {
+			if (this.mUuid != null) {
+				mPorts.remove(this.mUuid, this.mServerSocket.getLocalPort());
+			}
+			this.mServerSocket.close();
+		}
+	}
+
+	public ConcurrentHashMap<UUID, Integer> mPorts = new ConcurrentHashMap<UUID, Integer>();
+
+	public Transport.Connection connect(Transport.ConnectAttempt attempt) throws IOException {
+		String address = attempt.mAddress;
+		String host = "127.0.0.1";
+		Integer port;
+
+		int separator = (address != null) ? address.lastIndexOf(':') : -1;
+		if ((separator > 0) && (address.indexOf(':') == separator)) {
+			host = address.substring(0, separator);
+			try {
+				port = Integer.valueOf(address.substring(separator + 1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid address: " + address);
+			}
+		} else if (LoopbackTransport.isL2cap(attempt.mType)) {
+			port = attempt.mPsm;
+		} else {
+			port = this.mPorts.get(attempt.mUuid);
+			if (port == null) {
+				throw new IOException("Connection refused");
+			}
+		}
+
+		Socket socket = new Socket();
+		try {
+			attempt.setSocket(socket);
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(host, port));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		return new TcpConnection(socket);
+	}
+
+	public Transport.Listener listen(String name, UUID uuid, int type) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		if (LoopbackTransport.isL2cap(type)) {
+			return new TcpListener(null, serverSocket);
+		}
+
+		if (this.mPorts.putIfAbsent(uuid, serverSocket.getLocalPort()) != null) {
+			serverSocket.close();
+			throw new IOException("Address already in use");
+		}
+
+		return new TcpListener(uuid, serverSocket);
+	}
+}
@@ -0,0 +1,112 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+// The socket I/O used by NetworkingBluetooth, so that the read, write and accept loops
+// can run on top of something else than Bluetooth
+public interface Transport {
+	// The service name of the listeners, in the SDP record of Bluetooth
+	public static final String SERVICE_NAME = "CordovaNetworkingBluetooth";
+
+	// The socket types. The insecure types skip the authentication and the encryption of the link.
+	public static final int TYPE_RFCOMM = 0;
+	public static final int TYPE_RFCOMM_INSECURE = 1;
+	// L2CAP connection-oriented channels, addressed by psm instead of uuid
+	public static final int TYPE_L2CAP = 2;
+	public static final int TYPE_L2CAP_INSECURE = 3;
+
+	public interface Connection {
+		public InputStream getInputStream() throws IOException;
+		public OutputStream getOutputStream() throws IOException;
+		public boolean isConnected();
+		public String getAddress();
+		public void close() throws IOException;
+	}
+
+	// Allows to abort a connect from another thread, by closing the socket that is connecting
+	public class ConnectAttempt {
+		public String mAddress;
+		public UUID mUuid;
+		public int mType;
+		public int mPsm;
+		public Closeable mSocket = null;
+		public String mCancelReason = null;
+		public boolean mFinished = false;
+
+		public ConnectAttempt(String address, UUID uuid) {
+			this(address, uuid, TYPE_RFCOMM, 0);
+		}
+
+		public ConnectAttempt(String address, UUID uuid, int type, int psm) {
+			this.mAddress = address;
+			this.mUuid = uuid;
+			this.mType = type;
+			this.mPsm = psm;
+		}
+
+		// Called by the transport before each blocking connect
+		public synchronized void setSocket(Closeable socket) throws IOException {
+			if (this.mCancelReason != null) {
+				throw new IOException(this.mCancelReason);
+			}
+
+			this.mSocket = socket;
+		}
+
+		public synchronized void cancel(String reason) {
+			if (this.mFinished) {
+				return;
+			}
+
+			if (this.mCancelReason == null) {
+				this.mCancelReason = reason;
+			}
+
+			if (this.mSocket != null) {
+				try {
+					this.mSocket.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		public synchronized boolean isCancelled() {
+			return (this.mCancelReason != null);
+		}
+
+		// Returns false if the attempt has been cancelled, even though the connect succeeded
+		public synchronized boolean finish() {
+			this.mFinished = true;
+			return (this.mCancelReason == null);
+		}
+	}
+
+	public interface Listener {
+		// Returns null when the listener has been closed
+		public Connection accept() throws IOException;
+		// Returns the psm to connect to, or -1 if the listener is not an L2CAP one
+		public int getPsm();
+		public void close() throws IOException;
+	}
+
+	public Connection connect(ConnectAttempt attempt) throws IOException;
+	// The uuid is not used by the L2CAP types, as the psm of the listener is chosen by the transport
+	public Listener listen(String name, UUID uuid, int type) throws IOException;
+}
@@ -0,0 +1,73 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+	@Test
+	public void arraysAreRoundedUpToTheirSizeClass() {
+		BufferPool pool = new BufferPool(1048576);
+
+		assertEquals(1024, pool.acquire(1).length);
+		assertEquals(1024, pool.acquire(1024).length);
+		assertEquals(2048, pool.acquire(1025).length);
+		assertEquals(65536, pool.acquire(40000).length);
+		assertEquals(65537, pool.acquire(65537).length);
+	}
+
+	@Test
+	public void releasedArraysAreReusedForAnyLengthOfTheirClass() {
+		BufferPool pool = new BufferPool(1048576);
+		byte[] buffer = pool.acquire(3000);
+
+		pool.release(buffer);
+		assertEquals(4096, pool.mPooledBytes.get());
+		assertSame(buffer, pool.acquire(2049));
+		assertEquals(0, pool.mPooledBytes.get());
+	}
+
+	@Test
+	public void onlyTheArraysOfASizeClassArePooled() {
+		BufferPool pool = new BufferPool(1048576);
+
+		pool.release(new byte[3000]);
+		pool.release(new byte[512]);
+		pool.release(new byte[131072]);
+		assertEquals(0, pool.mPooledBytes.get());
+	}
+
+	@Test
+	public void thePoolIsBounded() {
+		BufferPool pool = new BufferPool(8192);
+		byte[] first = pool.acquire(4096);
+		byte[] second = pool.acquire(4096);
+		byte[] third = pool.acquire(4096);
+
+		pool.release(first);
+		pool.release(second);
+		pool.release(third);
+		assertEquals(8192, pool.mPooledBytes.get());
+
+		assertNotSame(third, pool.acquire(4096));
+		pool.clear();
+		assertEquals(0, pool.mPooledBytes.get());
+		assertNotSame(first, pool.acquire(4096));
+	}
+}
@@ -0,0 +1,94 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+public class DeviceInfoCacheTest {
+	public static final String ADDRESS = "00:11:22:33:44:01";
+
+	public NetworkingBluetooth mPlugin;
+	public BluetoothDevice mDevice;
+
+	@Before
+	public void setUp() {
+		this.mPlugin = new NetworkingBluetooth();
+		this.mPlugin.mDeviceInfoCacheEnabled = true;
+		this.mDevice = new BluetoothDevice(ADDRESS);
+		this.mDevice.mName = "before";
+	}
+
+	@After
+	public void tearDown() {
+		this.mPlugin.onDestroy();
+	}
+
+	// What the system sends when the name of the device changes
+	public void nameChanged(String name) {
+		this.mDevice.mName = name;
+		this.mPlugin.mReceiver.onReceive(null, new Intent(BluetoothDevice.ACTION_NAME_CHANGED).putExtra(BluetoothDevice.EXTRA_DEVICE, this.mDevice));
+	}
+
+	@Test
+	public void theInfoIsCachedUntilTheDeviceChanges() throws JSONException {
+		JSONObject deviceInfo = this.mPlugin.getCachedDeviceInfo(this.mDevice);
+		assertEquals("before", deviceInfo.getString("name"));
+
+		// Without an intent, the cache does not know that the device has changed
+		this.mDevice.mName = "unseen";
+		assertSame(deviceInfo, this.mPlugin.getCachedDeviceInfo(this.mDevice));
+
+		this.nameChanged("after");
+		assertEquals("after", this.mPlugin.getCachedDeviceInfo(this.mDevice).getString("name"));
+
+		this.mDevice.mBondState = BluetoothDevice.BOND_BONDED;
+		this.mPlugin.mReceiver.onReceive(null, new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED).putExtra(BluetoothDevice.EXTRA_DEVICE, this.mDevice));
+		assertEquals(true, this.mPlugin.getCachedDeviceInfo(this.mDevice).getBoolean("paired"));
+	}
+
+	@Test
+	public void theInfoReadBeforeAnInvalidationIsNotCached() throws JSONException {
+		// The name changes while the info is being read, as it would on the main thread of the app
+		this.mPlugin.onDestroy();
+		this.mPlugin = new NetworkingBluetooth() {
+			public boolean mChanged = false;
+
+			@Override
+			public JSONObject getDeviceInfo(BluetoothDevice device) throws JSONException {
+				JSONObject deviceInfo = super.getDeviceInfo(device);
+				if (!this.mChanged) {
+					this.mChanged = true;
+					nameChanged("after");
+				}
+				return deviceInfo;
+			}
+		};
+		this.mPlugin.mDeviceInfoCacheEnabled = true;
+
+		assertEquals("before", this.mPlugin.getCachedDeviceInfo(this.mDevice).getString("name"));
+		assertEquals("after", this.mPlugin.getCachedDeviceInfo(this.mDevice).getString("name"));
+	}
+}
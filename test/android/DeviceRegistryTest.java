@@ -0,0 +1,93 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeviceRegistryTest {
+	public static final String ADDRESS_1 = "00:11:22:33:44:01";
+	public static final String ADDRESS_2 = "00:11:22:33:44:02";
+
+	public static JSONObject info(String address) throws JSONException {
+		JSONObject info = new JSONObject();
+		info.put("address", address);
+		return info;
+	}
+
+	@Test
+	public void aDeviceIsReportedOnlyWhenItChanges() throws JSONException {
+		DeviceRegistry registry = new DeviceRegistry(60000, 5);
+
+		assertEquals(DeviceRegistry.INFO_CHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -60, 1000));
+		assertEquals(DeviceRegistry.UNCHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -60, 1100));
+		// A missing name or rssi is not a change
+		assertEquals(DeviceRegistry.UNCHANGED, registry.update(ADDRESS_1, null, 0x200, DeviceRegistry.RSSI_UNKNOWN, 1200));
+		// The rssi is reported again only past the threshold
+		assertEquals(DeviceRegistry.UNCHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -64, 1300));
+		assertEquals(DeviceRegistry.RSSI_CHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -69, 1400));
+		assertEquals(DeviceRegistry.INFO_CHANGED, registry.update(ADDRESS_1, "renamed", 0x200, (short) -69, 1500));
+		assertEquals(DeviceRegistry.INFO_CHANGED, registry.update(ADDRESS_1, "renamed", 0x400, (short) -69, 1600));
+	}
+
+	@Test
+	public void takeChangedReturnsTheChangedDevicesOnce() throws JSONException {
+		DeviceRegistry registry = new DeviceRegistry(60000, 5);
+
+		registry.update(ADDRESS_1, "one", 0x200, (short) -60, 1000);
+		registry.setInfo(ADDRESS_1, info(ADDRESS_1));
+		registry.update(ADDRESS_2, "two", 0x100, DeviceRegistry.RSSI_UNKNOWN, 1100);
+		registry.setInfo(ADDRESS_2, info(ADDRESS_2));
+		registry.update(ADDRESS_1, "one", 0x200, (short) -70, 1200);
+
+		JSONArray devices = registry.takeChanged();
+		assertEquals(2, devices.length());
+		assertEquals(ADDRESS_1, devices.getJSONObject(0).getString("address"));
+		assertEquals(-70, devices.getJSONObject(0).getInt("rssi"));
+		assertEquals(1200, devices.getJSONObject(0).getLong("lastSeen"));
+		assertEquals(0x200, devices.getJSONObject(0).getInt("deviceClass"));
+		assertEquals(ADDRESS_2, devices.getJSONObject(1).getString("address"));
+		assertEquals(false, devices.getJSONObject(1).has("rssi"));
+
+		assertEquals(0, registry.takeChanged().length());
+	}
+
+	@Test
+	public void aDeviceNotSeenForTheTtlIsNew() throws JSONException {
+		DeviceRegistry registry = new DeviceRegistry(60000, 5);
+
+		registry.update(ADDRESS_1, "one", 0x200, (short) -60, 1000);
+		registry.update(ADDRESS_2, "two", 0x200, (short) -60, 30000);
+		assertEquals(DeviceRegistry.UNCHANGED, registry.update(ADDRESS_2, "two", 0x200, (short) -60, 61001));
+		assertEquals(1, registry.mEntries.size());
+		assertEquals(DeviceRegistry.INFO_CHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -60, 61002));
+	}
+
+	@Test
+	public void eachDiscoveryReportsAllTheDevices() throws JSONException {
+		DeviceRegistry registry = new DeviceRegistry(60000, 5);
+
+		registry.update(ADDRESS_1, "one", 0x200, (short) -60, 1000);
+		assertEquals(DeviceRegistry.UNCHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -60, 2000));
+
+		registry.resetReported();
+		assertEquals(DeviceRegistry.INFO_CHANGED, registry.update(ADDRESS_1, "one", 0x200, (short) -60, 3000));
+	}
+}
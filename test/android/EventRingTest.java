@@ -0,0 +1,118 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.apache.cordova.PluginResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Executors;
+
+public class EventRingTest {
+	public EventRing mRing;
+
+	@Before
+	public void setUp() {
+		this.mRing = new EventRing(64, Executors.defaultThreadFactory());
+	}
+
+	@After
+	public void tearDown() {
+		this.mRing.close();
+	}
+
+	@Test(timeout = 30000)
+	public void eventsAreDispatchedInOrderForEachProducer() throws InterruptedException {
+		final int producers = 4;
+		final int events = 10000;
+		final LoopbackPlugin.RecordingCallbackContext[] contexts = new LoopbackPlugin.RecordingCallbackContext[producers];
+		Thread[] threads = new Thread[producers];
+
+		for (int i = 0; i < producers; i++) {
+			final LoopbackPlugin.RecordingCallbackContext context = new LoopbackPlugin.RecordingCallbackContext();
+			contexts[i] = context;
+			threads[i] = new Thread() {
+				public void run() {
+					// Far more events than the capacity, so that the producers wait for free slots
+					for (int j = 0; j < events; j++) {
+						EventRingTest.this.mRing.publish(context, new PluginResult(PluginResult.Status.OK, j));
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		for (int i = 0; i < producers; i++) {
+			threads[i].join();
+		}
+
+		for (int i = 0; i < producers; i++) {
+			for (int j = 0; j < events; j++) {
+				assertEquals(String.valueOf(j), contexts[i].takeSuccess());
+			}
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void aFailingCallbackDoesNotStopTheOthers() throws InterruptedException {
+		LoopbackPlugin.RecordingCallbackContext failing = new LoopbackPlugin.RecordingCallbackContext() {
+			@Override
+			public void sendPluginResult(PluginResult pluginResult) {
+				throw new IllegalStateException("failing");
+			}
+		};
+		LoopbackPlugin.RecordingCallbackContext context = new LoopbackPlugin.RecordingCallbackContext();
+
+		this.mRing.publish(failing, new PluginResult(PluginResult.Status.OK, 1));
+		// The events with no registered callback are dropped
+		this.mRing.publish(null, new PluginResult(PluginResult.Status.OK, 2));
+		this.mRing.publish(context, new PluginResult(PluginResult.Status.OK, 3));
+
+		assertEquals("3", context.takeSuccess());
+	}
+
+	@Test(timeout = 30000)
+	public void eventsAfterAnIdlePeriodAreDispatched() throws InterruptedException {
+		LoopbackPlugin.RecordingCallbackContext context = new LoopbackPlugin.RecordingCallbackContext();
+
+		for (int i = 0; i < 5; i++) {
+			// The idle dispatcher parks with no timeout, until it is woken up
+			while (this.mRing.mThread.getState() != Thread.State.WAITING) {
+				Thread.sleep(1);
+			}
+			this.mRing.publish(context, new PluginResult(PluginResult.Status.OK, i));
+			assertEquals(String.valueOf(i), context.takeSuccess());
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void aBatchIsDispatchedAfterTheBatchDelay() throws InterruptedException {
+		LoopbackPlugin.RecordingCallbackContext context = new LoopbackPlugin.RecordingCallbackContext();
+
+		this.mRing.mBatchDelay = 20;
+		Thread.sleep(50);
+		for (int i = 0; i < 10; i++) {
+			this.mRing.publish(context, new PluginResult(PluginResult.Status.OK, i));
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(String.valueOf(i), context.takeSuccess());
+		}
+	}
+}
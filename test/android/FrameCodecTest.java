@@ -0,0 +1,157 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class FrameCodecTest {
+	public static class Frames implements FrameCodec.FrameListener {
+		public ArrayList<byte[]> mFrames = new ArrayList<byte[]>();
+
+		public void onFrame(byte[] buffer, int offset, int length) {
+			this.mFrames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+		}
+	}
+
+	public static byte[][] messages() {
+		return new byte[][] {
+			"first".getBytes(),
+			new byte[0],
+			LoopbackPlugin.pattern(5000),
+			"last".getBytes()
+		};
+	}
+
+	// Decodes the stream in reads of the given size, and checks that the messages come out whole and in order
+	public static void checkDecode(FrameCodec codec, byte[] stream, byte[][] messages, int readSize) throws IOException {
+		Frames frames = new Frames();
+
+		for (int offset = 0; offset < stream.length; offset += readSize) {
+			codec.decode(stream, offset, Math.min(readSize, stream.length - offset), frames);
+		}
+
+		assertEquals("read size " + readSize, messages.length, frames.mFrames.size());
+		for (int i = 0; i < messages.length; i++) {
+			assertArrayEquals("read size " + readSize, messages[i], frames.mFrames.get(i));
+		}
+	}
+
+	@Test
+	public void lengthPrefixFramesSplitAcrossReads() throws IOException {
+		byte[][] messages = messages();
+
+		for (int lengthSize : new int[] {2, 4}) {
+			FrameCodec encoder = new FrameCodec(FrameCodec.LENGTH_PREFIX, lengthSize, 0, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			for (byte[] message : messages) {
+				byte[] frame = encoder.encode(message);
+				assertEquals(lengthSize + message.length, frame.length);
+				stream.write(frame, 0, frame.length);
+			}
+
+			for (int readSize : new int[] {1, 2, 3, 7, 4096, 100000}) {
+				checkDecode(new FrameCodec(FrameCodec.LENGTH_PREFIX, lengthSize, 0, FrameCodec.DEFAULT_MAX_FRAME_SIZE), stream.toByteArray(), messages, readSize);
+			}
+		}
+	}
+
+	@Test
+	public void delimiterFramesSplitAcrossReads() throws IOException {
+		byte[][] messages = {"first".getBytes(), new byte[0], new byte[5000], "last".getBytes()};
+		FrameCodec encoder = new FrameCodec(FrameCodec.DELIMITER, 0, '\n', FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+		for (byte[] message : messages) {
+			byte[] frame = encoder.encode(message);
+			assertEquals('\n', frame[frame.length - 1]);
+			stream.write(frame, 0, frame.length);
+		}
+
+		for (int readSize : new int[] {1, 2, 3, 7, 4096, 100000}) {
+			checkDecode(new FrameCodec(FrameCodec.DELIMITER, 0, '\n', FrameCodec.DEFAULT_MAX_FRAME_SIZE), stream.toByteArray(), messages, readSize);
+		}
+	}
+
+	@Test
+	public void resetDropsThePartialFrame() throws IOException {
+		FrameCodec codec = new FrameCodec(FrameCodec.LENGTH_PREFIX, 4, 0, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+		byte[] lost = codec.encode("lost".getBytes());
+		byte[] next = codec.encode("next".getBytes());
+		Frames frames = new Frames();
+
+		codec.decode(lost, 0, lost.length - 1, frames);
+		codec.reset();
+		codec.decode(next, 0, next.length, frames);
+
+		assertEquals(1, frames.mFrames.size());
+		assertArrayEquals("next".getBytes(), frames.mFrames.get(0));
+	}
+
+	@Test
+	public void framesLargerThanTheMaximumFail() throws IOException {
+		FrameCodec codec = new FrameCodec(FrameCodec.LENGTH_PREFIX, 4, 0, 16);
+		byte[] header = {0, 0, 0, 17};
+
+		try {
+			codec.decode(header, 0, header.length, new Frames());
+			fail();
+		} catch (IOException e) {
+			assertEquals("Frame too large", e.getMessage());
+		}
+
+		try {
+			codec.encode(new byte[17]);
+			fail();
+		} catch (IOException e) {
+			assertEquals("Frame too large", e.getMessage());
+		}
+
+		// Without a delimiter, the partial frame can not grow past the maximum either
+		FrameCodec delimiterCodec = new FrameCodec(FrameCodec.DELIMITER, 0, '\n', 16);
+		try {
+			delimiterCodec.decode(new byte[10], 0, 10, new Frames());
+			delimiterCodec.decode(new byte[10], 0, 10, new Frames());
+			fail();
+		} catch (IOException e) {
+			assertEquals("Frame too large", e.getMessage());
+		}
+	}
+
+	@Test
+	public void messagesContainingTheDelimiterFail() throws IOException {
+		FrameCodec codec = new FrameCodec(FrameCodec.DELIMITER, 0, '\n', FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+
+		try {
+			codec.encode("first\nsecond".getBytes());
+			fail();
+		} catch (IOException e) {
+			assertEquals("Message contains the delimiter", e.getMessage());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidLengthSize() {
+		new FrameCodec(FrameCodec.LENGTH_PREFIX, 3, 0, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+	}
+}
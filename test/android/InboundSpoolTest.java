@@ -0,0 +1,185 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+public class InboundSpoolTest {
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	public static byte[] record(int index, int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (index + i);
+		}
+
+		return data;
+	}
+
+	@Test
+	public void recordsPastTheMemoryLimitSpillToAFileInOrder() throws IOException {
+		File directory = this.mFolder.newFolder();
+		InboundSpool spool = new InboundSpool(1, true, 1000, 1000000, directory);
+
+		for (int i = 0; i < 50; i++) {
+			assertTrue(spool.add(record(i, 100), 0, 100));
+			if (i == 20) {
+				assertTrue(spool.addError("error " + i));
+			}
+		}
+
+		// 10 records fit in memory, and the others went to the file
+		assertEquals(10, spool.mHead.size());
+		assertEquals(41, spool.mFileRecords);
+		assertEquals(1000, spool.mMemorySize);
+		assertEquals(5000, spool.mSize);
+		assertNotNull(spool.mFile);
+		assertEquals(1, directory.listFiles().length);
+
+		for (int i = 0; i < 50; i++) {
+			InboundSpool.Record record = spool.poll();
+			assertArrayEquals(record(i, 100), record.mData);
+			if (i == 20) {
+				assertEquals("error " + i, spool.poll().mErrorMessage);
+			}
+		}
+
+		assertNull(spool.poll());
+		assertEquals(0, spool.mSize);
+		assertEquals(0, spool.mMemorySize);
+		// The file is deleted once it has been read
+		assertNull(spool.mFile);
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void recordsAddedWhileDrainingKeepTheirOrder() throws IOException {
+		InboundSpool spool = new InboundSpool(1, true, 300, 1000000, this.mFolder.newFolder());
+		int added = 0;
+		int polled = 0;
+
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 7; i++) {
+				spool.add(record(added, 100), 0, 100);
+				added++;
+			}
+			for (int i = 0; i < 5; i++) {
+				assertArrayEquals(record(polled, 100), spool.poll().mData);
+				polled++;
+			}
+		}
+
+		InboundSpool.Record record;
+		while ((record = spool.poll()) != null) {
+			assertArrayEquals(record(polled, 100), record.mData);
+			polled++;
+		}
+		assertEquals(added, polled);
+	}
+
+	@Test
+	public void recordsStayInMemoryWithoutADirectory() throws IOException {
+		InboundSpool spool = new InboundSpool(1, true, 100, 1000000, null);
+
+		for (int i = 0; i < 10; i++) {
+			spool.add(record(i, 100), 0, 100);
+		}
+
+		assertEquals(0, spool.mFileRecords);
+		assertEquals(1000, spool.mMemorySize);
+		for (int i = 0; i < 10; i++) {
+			assertArrayEquals(record(i, 100), spool.poll().mData);
+		}
+		assertNull(spool.poll());
+	}
+
+	@Test
+	public void recordsStayInMemoryWhenTheFileFails() throws IOException {
+		// A file in place of the directory makes the spool file fail
+		File notADirectory = this.mFolder.newFile();
+		InboundSpool spool = new InboundSpool(1, true, 100, 1000000, notADirectory);
+
+		for (int i = 0; i < 10; i++) {
+			spool.add(record(i, 100), 0, 100);
+		}
+
+		assertTrue(spool.mFileFailed);
+		for (int i = 0; i < 10; i++) {
+			assertArrayEquals(record(i, 100), spool.poll().mData);
+		}
+		assertNull(spool.poll());
+	}
+
+	@Test
+	public void theSpoolIsFullAtItsMaximumSize() throws IOException {
+		InboundSpool spool = new InboundSpool(1, true, 1000, 500, this.mFolder.newFolder());
+
+		for (int i = 0; i < 4; i++) {
+			spool.add(record(i, 100), 0, 100);
+		}
+		assertFalse(spool.isFull());
+
+		spool.add(record(4, 100), 0, 100);
+		assertTrue(spool.isFull());
+
+		spool.poll();
+		assertFalse(spool.isFull());
+	}
+
+	@Test
+	public void closeIfEmptyClosesOnlyAnEmptySpool() throws IOException {
+		File directory = this.mFolder.newFolder();
+		InboundSpool spool = new InboundSpool(1, true, 100, 1000000, directory);
+
+		spool.add(record(0, 100), 0, 100);
+		spool.add(record(1, 100), 0, 100);
+		assertFalse(spool.closeIfEmpty());
+
+		spool.poll();
+		spool.poll();
+		assertTrue(spool.closeIfEmpty());
+		assertFalse(spool.add(record(2, 100), 0, 100));
+		assertFalse(spool.addError("error"));
+	}
+
+	@Test
+	public void closeDeletesTheFile() throws IOException {
+		File directory = this.mFolder.newFolder();
+		InboundSpool spool = new InboundSpool(1, true, 100, 1000000, directory);
+
+		for (int i = 0; i < 10; i++) {
+			spool.add(record(i, 100), 0, 100);
+		}
+		assertEquals(1, directory.listFiles().length);
+
+		spool.close();
+		assertEquals(0, directory.listFiles().length);
+		assertEquals(0, spool.mSize);
+		assertNull(spool.poll());
+	}
+}
@@ -0,0 +1,269 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// A NetworkingBluetooth running on top of LoopbackTransport, as it would in the WebView of an app,
+// with a listener of the transport standing in for the remote device
+public class LoopbackPlugin {
+	public static final long TIMEOUT = 10000;
+
+	// Records the results, in place of the bridge
+	public static class RecordingCallbackContext extends CallbackContext {
+		public LinkedBlockingQueue<PluginResult> mResults = new LinkedBlockingQueue<PluginResult>();
+
+		public RecordingCallbackContext() {
+			super("LoopbackPlugin", null);
+		}
+
+		@Override
+		public void sendPluginResult(PluginResult pluginResult) {
+			this.mResults.add(pluginResult);
+		}
+
+		public PluginResult take() throws InterruptedException {
+			PluginResult pluginResult = this.mResults.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			if (pluginResult == null) {
+				throw new AssertionError("No result");
+			}
+
+			return pluginResult;
+		}
+
+		// Returns the message of the next result, and fails if the result is an error
+		public String takeSuccess() throws InterruptedException {
+			PluginResult pluginResult = this.take();
+			if (pluginResult.getStatus() != PluginResult.Status.OK.ordinal()) {
+				throw new AssertionError("Error: " + pluginResult.getMessage());
+			}
+
+			return pluginResult.getMessage();
+		}
+
+		// Returns the message of the next result, and fails if the result is not an error
+		public String takeError() throws InterruptedException {
+			PluginResult pluginResult = this.take();
+			if (pluginResult.getStatus() != PluginResult.Status.ERROR.ordinal()) {
+				throw new AssertionError("Not an error: " + pluginResult.getMessage());
+			}
+
+			return pluginResult.getStrMessage();
+		}
+	}
+
+	public static class TestCordova implements CordovaInterface {
+		public Activity mActivity;
+
+		public TestCordova(File cacheDir) {
+			this.mActivity = new Activity(cacheDir);
+		}
+
+		public void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode) {
+		}
+
+		public Activity getActivity() {
+			return this.mActivity;
+		}
+
+		public ExecutorService getThreadPool() {
+			return null;
+		}
+
+		public void requestPermission(CordovaPlugin plugin, int requestCode, String permission) {
+		}
+
+		public boolean hasPermission(String permission) {
+			return true;
+		}
+	}
+
+	public NetworkingBluetooth mPlugin;
+	public LoopbackTransport mTransport;
+	public UUID mUuid = UUID.randomUUID();
+	public Transport.Listener mRemote;
+	public RecordingCallbackContext mReceive = new RecordingCallbackContext();
+	public RecordingCallbackContext mReceiveError = new RecordingCallbackContext();
+	public RecordingCallbackContext mDrain = new RecordingCallbackContext();
+	public RecordingCallbackContext mAccept = new RecordingCallbackContext();
+	public RecordingCallbackContext mAcceptError = new RecordingCallbackContext();
+	// The data taken from the onReceive events by takeReceived, past the length that it returned
+	public ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+
+	public LoopbackPlugin(File cacheDir) throws IOException, JSONException {
+		this(cacheDir, new CordovaPreferences());
+	}
+
+	public LoopbackPlugin(File cacheDir, CordovaPreferences preferences) throws IOException, JSONException {
+		this(new NetworkingBluetooth(), cacheDir, preferences);
+	}
+
+	public LoopbackPlugin(NetworkingBluetooth plugin, File cacheDir, CordovaPreferences preferences) throws IOException, JSONException {
+		preferences.set(NetworkingBluetooth.TRANSPORT_PREFERENCE, "loopback");
+
+		this.mPlugin = plugin;
+		this.mPlugin.privateInitialize("NetworkingBluetooth", new TestCordova(cacheDir), null, preferences);
+		this.mTransport = (LoopbackTransport) this.mPlugin.mTransport;
+		this.mRemote = this.mTransport.listen(Transport.SERVICE_NAME, this.mUuid, Transport.TYPE_RFCOMM);
+
+		this.execute("registerReceive", this.mReceive);
+		this.execute("registerReceiveError", this.mReceiveError);
+		this.execute("registerDrain", this.mDrain);
+		this.execute("registerAccept", this.mAccept);
+		this.execute("registerAcceptError", this.mAcceptError);
+	}
+
+	public void destroy() throws IOException {
+		this.mRemote.close();
+		this.mPlugin.onDestroy();
+	}
+
+	public RecordingCallbackContext execute(String action, Object... args) throws JSONException {
+		RecordingCallbackContext callbackContext = new RecordingCallbackContext();
+		this.execute(action, callbackContext, args);
+		return callbackContext;
+	}
+
+	public void execute(String action, CallbackContext callbackContext, Object... args) throws JSONException {
+		this.mPlugin.execute(action, new CordovaArgs(new JSONArray(Arrays.asList(args))), callbackContext);
+	}
+
+	// Connects a client socket to the remote device, and returns its socketId
+	public int connect(JSONObject options) throws IOException, JSONException, InterruptedException {
+		RecordingCallbackContext callbackContext = this.execute("connect", LoopbackTransport.ADDRESS, this.mUuid.toString(), (options != null) ? options : new JSONObject());
+		return Integer.parseInt(callbackContext.takeSuccess());
+	}
+
+	public Transport.Connection acceptRemote() throws IOException {
+		return this.mRemote.accept();
+	}
+
+	public RecordingCallbackContext send(int socketId, byte[] data, JSONObject options) throws JSONException {
+		return this.execute("send", socketId, encode(data), (options != null) ? options : new JSONObject());
+	}
+
+	// Takes the next onReceive event, and returns its data
+	public byte[] takeReceive(int socketId) throws InterruptedException {
+		PluginResult pluginResult = this.mReceive.take();
+		if ((pluginResult.getMessageType() != PluginResult.MESSAGE_TYPE_MULTIPART) || (Integer.parseInt(pluginResult.getMultipartMessage(0).getMessage()) != socketId)) {
+			throw new AssertionError("Not an onReceive event of socket " + socketId);
+		}
+
+		return Base64.decode(pluginResult.getMultipartMessage(1).getMessage(), Base64.DEFAULT);
+	}
+
+	// Takes the onReceive events, until length bytes have been received
+	public byte[] takeReceived(int socketId, int length) throws InterruptedException {
+		while (this.mReceived.size() < length) {
+			byte[] data = this.takeReceive(socketId);
+			this.mReceived.write(data, 0, data.length);
+		}
+
+		byte[] received = this.mReceived.toByteArray();
+		this.mReceived.reset();
+		this.mReceived.write(received, length, received.length - length);
+		return Arrays.copyOf(received, length);
+	}
+
+	// Takes the next onReceiveError event, and returns its error message
+	public String takeReceiveError(int socketId) throws InterruptedException, JSONException {
+		JSONObject info = new JSONObject(this.mReceiveError.takeSuccess());
+		if (info.getInt("socketId") != socketId) {
+			throw new AssertionError("Not an onReceiveError event of socket " + socketId);
+		}
+
+		return info.getString("errorMessage");
+	}
+
+	public void waitForRemoval(int socketId) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (this.mPlugin.mClientSockets.containsKey(socketId)) {
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("Socket " + socketId + " not removed");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	// Waits for the drain to close the spools, once their data has been delivered
+	public void waitForSpools() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+
+		while (true) {
+			synchronized (this.mPlugin.mSpools) {
+				if (this.mPlugin.mSpools.isEmpty() && (this.mPlugin.mSpoolDrain == null)) {
+					return;
+				}
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("Spools not drained");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	public static String encode(byte[] data) {
+		return Base64.encodeToString(data, Base64.NO_WRAP);
+	}
+
+	public static byte[] readFully(InputStream stream, int length) throws IOException {
+		byte[] data = new byte[length];
+		int offset = 0;
+		int bytesRead;
+
+		while (offset < length) {
+			bytesRead = stream.read(data, offset, length - offset);
+			if (bytesRead < 0) {
+				throw new IOException("Disconnected");
+			}
+			offset += bytesRead;
+		}
+
+		return data;
+	}
+
+	public static byte[] pattern(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31 + (i >> 8));
+		}
+
+		return data;
+	}
+}
@@ -0,0 +1,692 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.PluginResult;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.Build;
+import android.util.Base64;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// The data path of the plugin, from execute to the remote end of a loopback connection and back
+public class NetworkingBluetoothTest {
+	// A transport whose connects hang until they are cancelled, like a Bluetooth connect to a device out of range
+	public static class StalledTransport extends LoopbackTransport {
+		@Override
+		public Transport.Connection connect(Transport.ConnectAttempt attempt) throws IOException {
+			final CountDownLatch closed = new CountDownLatch(1);
+
+			attempt.setSocket(new Closeable() {
+				public void close() {
+					closed.countDown();
+				}
+			});
+
+			try {
+				closed.await();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			throw new IOException("Socket closed");
+		}
+	}
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	public LoopbackPlugin mLoopback;
+
+	@Before
+	public void setUp() throws Exception {
+		this.mLoopback = new LoopbackPlugin(this.mFolder.newFolder());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.mLoopback.destroy();
+	}
+
+	@Test(timeout = 30000)
+	public void dataIsSentAndReceived() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = LoopbackPlugin.pattern(100000);
+
+		// The data is larger than the pipe, so that the send completes only once the remote reads it
+		LoopbackPlugin.RecordingCallbackContext sendContext = this.mLoopback.send(socketId, data, null);
+		assertArrayEquals(data, LoopbackPlugin.readFully(remote.getInputStream(), data.length));
+		assertEquals("100000", sendContext.takeSuccess());
+
+		remote.getOutputStream().write(data);
+		assertArrayEquals(data, this.mLoopback.takeReceived(socketId, data.length));
+	}
+
+	@Test(timeout = 30000)
+	public void aStalledPeerDoesNotBlockTheOtherSockets() throws Exception {
+		int stalledId = this.mLoopback.connect(null);
+		Transport.Connection stalled = this.mLoopback.acceptRemote();
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = LoopbackPlugin.pattern(LoopbackTransport.PIPE_BUFFER_SIZE * 4);
+		byte[] message = "message".getBytes();
+
+		// The stalled peer does not read, so that the writer of its socket blocks on the full pipe
+		LoopbackPlugin.RecordingCallbackContext stalledContext = this.mLoopback.send(stalledId, data, null);
+
+		assertEquals(String.valueOf(message.length), this.mLoopback.send(socketId, message, null).takeSuccess());
+		assertArrayEquals(message, LoopbackPlugin.readFully(remote.getInputStream(), message.length));
+		remote.getOutputStream().write(message);
+		assertArrayEquals(message, this.mLoopback.takeReceived(socketId, message.length));
+		assertNull(stalledContext.mResults.poll());
+
+		assertArrayEquals(data, LoopbackPlugin.readFully(stalled.getInputStream(), data.length));
+		assertEquals(String.valueOf(data.length), stalledContext.takeSuccess());
+	}
+
+	@Test(timeout = 30000)
+	public void sendToManyReportsTheResultOfEachSocket() throws Exception {
+		int firstId = this.mLoopback.connect(null);
+		Transport.Connection first = this.mLoopback.acceptRemote();
+		int secondId = this.mLoopback.connect(null);
+		Transport.Connection second = this.mLoopback.acceptRemote();
+		int invalidId = secondId + 1;
+		byte[] data = "data".getBytes();
+
+		LoopbackPlugin.RecordingCallbackContext callbackContext = this.mLoopback.execute("sendToMany", new JSONArray(Arrays.asList(firstId, invalidId, secondId)), LoopbackPlugin.encode(data));
+		assertArrayEquals(data, LoopbackPlugin.readFully(first.getInputStream(), data.length));
+		assertArrayEquals(data, LoopbackPlugin.readFully(second.getInputStream(), data.length));
+
+		// A single result, with the sockets in the order of the request
+		JSONArray results = new JSONArray(callbackContext.takeSuccess());
+		assertEquals(3, results.length());
+		assertEquals(firstId, results.getJSONObject(0).getInt("socketId"));
+		assertEquals(data.length, results.getJSONObject(0).getInt("bytesSent"));
+		assertEquals(invalidId, results.getJSONObject(1).getInt("socketId"));
+		assertEquals("Invalid socketId", results.getJSONObject(1).getString("errorMessage"));
+		assertFalse(results.getJSONObject(1).has("bytesSent"));
+		assertEquals(secondId, results.getJSONObject(2).getInt("socketId"));
+		assertEquals(data.length, results.getJSONObject(2).getInt("bytesSent"));
+		assertNull(callbackContext.mResults.poll());
+	}
+
+	@Test(timeout = 30000)
+	public void aPausedSocketHoldsTheDataBack() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = "data".getBytes();
+
+		this.mLoopback.execute("setPaused", socketId, true).takeSuccess();
+		remote.getOutputStream().write(data);
+		Thread.sleep(200);
+		assertNull(this.mLoopback.mReceive.mResults.poll());
+
+		this.mLoopback.execute("setPaused", socketId, false).takeSuccess();
+		assertArrayEquals(data, this.mLoopback.takeReceived(socketId, data.length));
+		assertEquals("Invalid socketId", this.mLoopback.execute("setPaused", socketId + 1, true).takeError());
+	}
+
+	@Test(timeout = 30000)
+	public void drainIsSentAfterTheSendBufferIsFull() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"sendHighWaterMark\": 1000, \"sendLowWaterMark\": 0}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = LoopbackPlugin.pattern(LoopbackTransport.PIPE_BUFFER_SIZE * 2);
+
+		// The first send is past the high water mark, and the remote does not read it yet
+		LoopbackPlugin.RecordingCallbackContext sendContext = this.mLoopback.send(socketId, data, null);
+		assertEquals("Send buffer full", this.mLoopback.send(socketId, new byte[1], null).takeError());
+		assertNull(this.mLoopback.mDrain.mResults.poll());
+
+		assertArrayEquals(data, LoopbackPlugin.readFully(remote.getInputStream(), data.length));
+		assertEquals(String.valueOf(data.length), sendContext.takeSuccess());
+		JSONObject drainInfo = new JSONObject(this.mLoopback.mDrain.takeSuccess());
+		assertEquals(socketId, drainInfo.getInt("socketId"));
+		assertEquals(0, drainInfo.getLong("bufferedAmount"));
+
+		assertEquals("1", this.mLoopback.send(socketId, new byte[1], null).takeSuccess());
+	}
+
+	@Test(timeout = 30000)
+	public void theMetricsCountTheTraffic() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = "data".getBytes();
+
+		for (int i = 0; i < 3; i++) {
+			this.mLoopback.send(socketId, data, null).takeSuccess();
+		}
+		LoopbackPlugin.readFully(remote.getInputStream(), data.length * 3);
+		remote.getOutputStream().write(LoopbackPlugin.pattern(100));
+		this.mLoopback.takeReceived(socketId, 100);
+
+		JSONArray socketInfos = new JSONArray(this.mLoopback.execute("getSockets").takeSuccess());
+		assertEquals(1, socketInfos.length());
+		JSONObject socketInfo = socketInfos.getJSONObject(0);
+		assertEquals(socketId, socketInfo.getInt("socketId"));
+		assertEquals(true, socketInfo.getBoolean("connected"));
+		assertEquals(0, socketInfo.getLong("bufferedAmount"));
+
+		JSONObject metrics = socketInfo.getJSONObject("metrics");
+		assertEquals(data.length * 3, metrics.getLong("bytesSent"));
+		assertEquals(3, metrics.getLong("messagesSent"));
+		assertEquals(100, metrics.getLong("bytesReceived"));
+		assertTrue(metrics.getLong("messagesReceived") >= 1);
+		assertEquals(0, metrics.getLong("sendsRejected"));
+		assertEquals(0, metrics.getLong("readErrors"));
+
+		JSONObject usage = new JSONObject(this.mLoopback.execute("getResourceUsage").takeSuccess());
+		assertEquals(1, usage.getInt("clientSockets"));
+		assertEquals(0, usage.getInt("serverSockets"));
+		assertEquals(0, usage.getLong("spooledBytes"));
+	}
+
+	@Test(timeout = 30000)
+	public void smallReadsAreBatchedIntoOneEvent() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"receiveBatchSize\": 1000, \"receiveBatchDelay\": 500}"));
+		OutputStream output = this.mLoopback.acceptRemote().getOutputStream();
+		byte[] data = LoopbackPlugin.pattern(100);
+
+		// Each write is read on its own, as the read loop is already waiting for it
+		for (int offset = 0; offset < data.length; offset += 10) {
+			output.write(data, offset, 10);
+			Thread.sleep(2);
+		}
+
+		assertArrayEquals(data, this.mLoopback.takeReceive(socketId));
+		assertTrue(this.mLoopback.mPlugin.mClientSockets.get(socketId).mMetrics.mMessagesReceived.get() > 1);
+		assertNull(this.mLoopback.mReceive.mResults.poll());
+	}
+
+	@Test(timeout = 30000)
+	public void theReceiveBatchIsClamped() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"receiveBatchSize\": 2147483647, \"receiveBatchDelay\": 2147483647}"));
+		NetworkingBluetooth.ClientSocket clientSocket = this.mLoopback.mPlugin.mClientSockets.get(socketId);
+
+		assertEquals(NetworkingBluetooth.MAX_READ_BUFFER_SIZE, clientSocket.mReceiveBatch.length);
+		assertEquals(NetworkingBluetooth.MAX_RECEIVE_BATCH_DELAY, clientSocket.mReceiveBatchDelay);
+	}
+
+	// The next onReceive event, that is a whole envelope when the envelope is enabled
+	public byte[] takeEnvelope() throws InterruptedException {
+		PluginResult pluginResult = this.mLoopback.mReceive.take();
+		assertEquals(PluginResult.MESSAGE_TYPE_ARRAYBUFFER, pluginResult.getMessageType());
+
+		return Base64.decode(pluginResult.getMessage(), Base64.DEFAULT);
+	}
+
+	public static void putEnvelopeRecord(ByteBuffer envelope, int socketId, byte[] data) {
+		envelope.putInt(socketId);
+		envelope.put((byte) 0);
+		envelope.put((byte) (data.length >>> 16));
+		envelope.putShort((short) data.length);
+		envelope.put(data);
+	}
+
+	public void enableReceiveEnvelope() throws Exception {
+		CordovaPreferences preferences = new CordovaPreferences();
+		preferences.set(NetworkingBluetooth.RECEIVE_ENVELOPE_PREFERENCE, true);
+		this.mLoopback.destroy();
+		this.mLoopback = new LoopbackPlugin(this.mFolder.newFolder(), preferences);
+	}
+
+	@Test(timeout = 30000)
+	public void theEnvelopeHasAHeaderForEachRecord() throws Exception {
+		this.enableReceiveEnvelope();
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = "data".getBytes();
+
+		remote.getOutputStream().write(data);
+		ByteBuffer expected = ByteBuffer.allocate(NetworkingBluetooth.RECEIVE_ENVELOPE_HEADER_SIZE + data.length);
+		putEnvelopeRecord(expected, socketId, data);
+		assertArrayEquals(expected.array(), this.takeEnvelope());
+	}
+
+	@Test(timeout = 30000)
+	public void theDataOfSeveralSocketsIsPackedInOneEnvelope() throws Exception {
+		this.enableReceiveEnvelope();
+		NetworkingBluetooth plugin = this.mLoopback.mPlugin;
+		byte[] first = "first".getBytes();
+		byte[] second = "second".getBytes();
+		byte[] large = LoopbackPlugin.pattern(NetworkingBluetooth.MAX_RECEIVE_ENVELOPE_RECORD_LENGTH + 1);
+
+		// Holding the lock keeps the scheduled flush out, as if the records arrived within the time window
+		synchronized (plugin.mReceiveEnvelopeLock) {
+			plugin.envelopeReceive(1, first, 0, first.length);
+			plugin.envelopeReceive(2, second, 0, second.length);
+			plugin.envelopeReceive(1, second, 0, second.length);
+		}
+
+		ByteBuffer expected = ByteBuffer.allocate(3 * NetworkingBluetooth.RECEIVE_ENVELOPE_HEADER_SIZE + first.length + 2 * second.length);
+		putEnvelopeRecord(expected, 1, first);
+		putEnvelopeRecord(expected, 2, second);
+		putEnvelopeRecord(expected, 1, second);
+		assertArrayEquals(expected.array(), this.takeEnvelope());
+
+		// A record larger than the envelope is sent on its own, after the records before it
+		synchronized (plugin.mReceiveEnvelopeLock) {
+			plugin.envelopeReceive(2, first, 0, first.length);
+			plugin.envelopeReceive(1, large, 0, large.length);
+		}
+
+		expected = ByteBuffer.allocate(NetworkingBluetooth.RECEIVE_ENVELOPE_HEADER_SIZE + first.length);
+		putEnvelopeRecord(expected, 2, first);
+		assertArrayEquals(expected.array(), this.takeEnvelope());
+		assertArrayEquals(large, this.mLoopback.takeReceive(1));
+	}
+
+	@Test(timeout = 30000)
+	public void largeBulkDataIsSentWhole() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"sendHighWaterMark\": 16777216}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		// More chunks than the places in the send queue
+		byte[] data = LoopbackPlugin.pattern(5 * 1024 * 1024);
+
+		LoopbackPlugin.RecordingCallbackContext sendContext = this.mLoopback.send(socketId, data, new JSONObject("{\"priority\": \"bulk\"}"));
+		assertArrayEquals(data, LoopbackPlugin.readFully(remote.getInputStream(), data.length));
+		assertEquals(String.valueOf(data.length), sendContext.takeSuccess());
+	}
+
+	@Test(timeout = 30000)
+	public void bulkDataIsCompressedAChunkAtATime() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"compression\": true}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = LoopbackPlugin.pattern(100000);
+
+		LoopbackPlugin.RecordingCallbackContext sendContext = this.mLoopback.send(socketId, data, new JSONObject("{\"priority\": \"bulk\"}"));
+		InflaterInputStream stream = new InflaterInputStream(remote.getInputStream(), new Inflater(true));
+		assertArrayEquals(data, LoopbackPlugin.readFully(stream, data.length));
+		assertEquals(String.valueOf(data.length), sendContext.takeSuccess());
+	}
+
+	@Test(timeout = 30000)
+	public void controlDataIsSentInTheMiddleOfBulkData() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] bulk = new byte[1024 * 1024];
+		byte[] control = "control".getBytes();
+
+		LoopbackPlugin.RecordingCallbackContext bulkContext = this.mLoopback.send(socketId, bulk, new JSONObject("{\"priority\": \"bulk\"}"));
+		LoopbackPlugin.RecordingCallbackContext controlContext = this.mLoopback.send(socketId, control, new JSONObject("{\"priority\": \"control\"}"));
+		byte[] received = LoopbackPlugin.readFully(remote.getInputStream(), bulk.length + control.length);
+
+		// The bulk data is all zeros, so the control data is where the first non zero byte is
+		int position = 0;
+		while (received[position] == 0) {
+			position++;
+		}
+		assertTrue(position < bulk.length);
+		assertArrayEquals(control, Arrays.copyOfRange(received, position, position + control.length));
+		assertEquals(String.valueOf(control.length), controlContext.takeSuccess());
+		assertEquals(String.valueOf(bulk.length), bulkContext.takeSuccess());
+	}
+
+	@Test(timeout = 30000)
+	public void framesAreReceivedWhole() throws Exception {
+		JSONObject options = new JSONObject("{\"framing\": {\"type\": \"length\", \"lengthSize\": 2}}");
+		int socketId = this.mLoopback.connect(options);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		FrameCodec codec = new FrameCodec(FrameCodec.LENGTH_PREFIX, 2, 0, FrameCodec.DEFAULT_MAX_FRAME_SIZE);
+		byte[][] messages = {"first".getBytes(), LoopbackPlugin.pattern(20000), "last".getBytes()};
+		OutputStream output = remote.getOutputStream();
+
+		// The frames are written a few bytes at a time, so that they arrive split across reads
+		for (byte[] message : messages) {
+			byte[] frame = codec.encode(message);
+			for (int offset = 0; offset < frame.length; offset += 3) {
+				output.write(frame, offset, Math.min(3, frame.length - offset));
+				output.flush();
+			}
+		}
+
+		for (byte[] message : messages) {
+			assertArrayEquals(message, this.mLoopback.takeReceive(socketId));
+		}
+
+		// The messages sent get the framing too
+		this.mLoopback.send(socketId, messages[1], null).takeSuccess();
+		byte[] frame = codec.encode(messages[1]);
+		assertArrayEquals(frame, LoopbackPlugin.readFully(remote.getInputStream(), frame.length));
+	}
+
+	@Test(timeout = 30000)
+	public void aMessageContainingTheDelimiterIsNotSent() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"framing\": {\"type\": \"delimiter\"}}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+
+		assertEquals("Message contains the delimiter", this.mLoopback.send(socketId, "first\nsecond".getBytes(), null).takeError());
+		assertEquals("6", this.mLoopback.send(socketId, "first".getBytes(), null).takeSuccess());
+		assertArrayEquals("first\n".getBytes(), LoopbackPlugin.readFully(remote.getInputStream(), 6));
+	}
+
+	@Test(timeout = 30000)
+	public void aFileLargerThanTheHighWaterMarkIsSent() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"sendHighWaterMark\": 131072}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = LoopbackPlugin.pattern(1000000);
+		File file = this.mFolder.newFile();
+		FileOutputStream stream = new FileOutputStream(file);
+		stream.write(data);
+		stream.close();
+
+		LoopbackPlugin.RecordingCallbackContext callbackContext = this.mLoopback.execute("sendFile", socketId, file.getPath());
+		assertArrayEquals(data, LoopbackPlugin.readFully(remote.getInputStream(), data.length));
+
+		JSONObject progressInfo;
+		do {
+			progressInfo = new JSONObject(callbackContext.takeSuccess());
+		} while (!progressInfo.getBoolean("done"));
+		assertEquals(data.length, progressInfo.getLong("bytesTransferred"));
+	}
+
+	@Test(timeout = 30000)
+	public void dataReceivedInTheBackgroundIsDeliveredOnResume() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = LoopbackPlugin.pattern(100000);
+
+		this.mLoopback.mPlugin.onPause(false);
+		remote.getOutputStream().write(data);
+		while (this.mLoopback.mPlugin.getResourceUsage().getLong("spooledBytes") < data.length) {
+			Thread.sleep(10);
+		}
+		assertNull(this.mLoopback.mReceive.mResults.poll());
+
+		this.mLoopback.mPlugin.onResume(false);
+		assertArrayEquals(data, this.mLoopback.takeReceived(socketId, data.length));
+		this.mLoopback.waitForSpools();
+	}
+
+	@Test(timeout = 30000)
+	public void aSocketWithAFullBackgroundBufferIsNotIdle() throws Exception {
+		CordovaPreferences preferences = new CordovaPreferences();
+		preferences.set(NetworkingBluetooth.BACKGROUND_BUFFER_SIZE_PREFERENCE, NetworkingBluetooth.SPOOL_MEMORY_SIZE);
+		this.mLoopback.destroy();
+		this.mLoopback = new LoopbackPlugin(this.mFolder.newFolder(), preferences);
+
+		int socketId = this.mLoopback.connect(new JSONObject("{\"idleTimeout\": 500}"));
+		final Transport.Connection remote = this.mLoopback.acceptRemote();
+		final byte[] data = LoopbackPlugin.pattern(NetworkingBluetooth.SPOOL_MEMORY_SIZE * 2);
+
+		this.mLoopback.mPlugin.onPause(false);
+		// The writes block once the spool is full, until the app is resumed
+		new Thread() {
+			public void run() {
+				try {
+					remote.getOutputStream().write(data);
+				} catch (IOException e) {}
+			}
+		}.start();
+		// Well past the idle timeout, with the read loop held back by the full spool
+		Thread.sleep(1500);
+		assertTrue(this.mLoopback.mPlugin.mClientSockets.containsKey(socketId));
+
+		this.mLoopback.mPlugin.onResume(false);
+		assertArrayEquals(data, this.mLoopback.takeReceived(socketId, data.length));
+		assertNull(this.mLoopback.mReceiveError.mResults.poll());
+	}
+
+	@Test(timeout = 30000)
+	public void anIdleSocketIsClosed() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"idleTimeout\": 300}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+
+		assertEquals(NetworkingBluetooth.IDLE_TIMEOUT_REASON, this.mLoopback.takeReceiveError(socketId));
+		this.mLoopback.waitForRemoval(socketId);
+		assertEquals(-1, remote.getInputStream().read());
+	}
+
+	@Test(timeout = 30000)
+	public void aFailedKeepAliveClosesTheSocket() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"keepAlive\": {\"interval\": 100, \"data\": [1, 2]}}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+
+		// The keepalive is sent while nothing else is
+		assertArrayEquals(new byte[] {1, 2}, LoopbackPlugin.readFully(remote.getInputStream(), 2));
+
+		// The remote stops reading, but the link stays up in the other direction
+		((LoopbackTransport.LoopbackConnection) remote).mInput.closeRead();
+		assertEquals(NetworkingBluetooth.KEEPALIVE_FAILED_REASON, this.mLoopback.takeReceiveError(socketId));
+		this.mLoopback.waitForRemoval(socketId);
+	}
+
+	@Test(timeout = 30000)
+	public void theSocketsAreCapped() throws Exception {
+		CordovaPreferences preferences = new CordovaPreferences();
+		preferences.set(NetworkingBluetooth.MAX_SOCKETS_PREFERENCE, 1);
+		this.mLoopback.destroy();
+		this.mLoopback = new LoopbackPlugin(this.mFolder.newFolder(), preferences);
+
+		int socketId = this.mLoopback.connect(null);
+		this.mLoopback.acceptRemote();
+
+		assertEquals("Too many sockets", this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), new JSONObject()).takeError());
+		// The refused connection is closed
+		assertEquals(-1, this.mLoopback.acceptRemote().getInputStream().read());
+		assertEquals(1, this.mLoopback.mPlugin.getResourceUsage().getInt("clientSockets"));
+
+		// Closing a socket makes room for the next one
+		this.mLoopback.execute("close", socketId).takeSuccess();
+		this.mLoopback.connect(null);
+	}
+
+	@Test(timeout = 30000)
+	public void aConnectThatTakesTooLongTimesOut() throws Exception {
+		this.mLoopback.mPlugin.mTransport = new StalledTransport();
+
+		JSONObject options = new JSONObject("{\"connectTimeout\": 200}");
+		assertEquals("Connection timed out", this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), options).takeError());
+		assertTrue(this.mLoopback.mPlugin.mPendingConnects.isEmpty());
+	}
+
+	@Test(timeout = 30000)
+	public void cancelConnectFailsThePendingConnect() throws Exception {
+		this.mLoopback.mPlugin.mTransport = new StalledTransport();
+
+		LoopbackPlugin.RecordingCallbackContext connectContext = this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), new JSONObject());
+		while (this.mLoopback.mPlugin.mPendingConnects.isEmpty()) {
+			Thread.sleep(10);
+		}
+
+		// Only the connects to the given uuid are cancelled
+		this.mLoopback.execute("cancelConnect", LoopbackTransport.ADDRESS, UUID.randomUUID().toString()).takeSuccess();
+		Thread.sleep(100);
+		assertNull(connectContext.mResults.poll());
+
+		this.mLoopback.execute("cancelConnect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString()).takeSuccess();
+		assertEquals("Connection cancelled", connectContext.takeError());
+		assertTrue(this.mLoopback.mPlugin.mPendingConnects.isEmpty());
+	}
+
+	@Test(timeout = 30000)
+	public void theRemoteCloseIsReported() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+
+		remote.close();
+		this.mLoopback.takeReceiveError(socketId);
+
+		// The socket is removed by the read loop right after the event
+		this.mLoopback.waitForRemoval(socketId);
+		assertEquals("Invalid socketId", this.mLoopback.send(socketId, new byte[1], null).takeError());
+	}
+
+	@Test(timeout = 30000)
+	public void aSupervisedSocketReconnectsWithTheSameSocketId() throws Exception {
+		int socketId = this.mLoopback.connect(new JSONObject("{\"reconnect\": {\"initialDelay\": 10, \"maxDelay\": 20}}"));
+		this.mLoopback.acceptRemote().close();
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+		byte[] data = "data".getBytes();
+
+		this.mLoopback.send(socketId, data, null).takeSuccess();
+		assertArrayEquals(data, LoopbackPlugin.readFully(remote.getInputStream(), data.length));
+		remote.getOutputStream().write(data);
+		assertArrayEquals(data, this.mLoopback.takeReceived(socketId, data.length));
+
+		assertEquals(1, this.mLoopback.mPlugin.mClientSockets.get(socketId).mMetrics.mReconnects.get());
+		assertNull(this.mLoopback.mReceiveError.mResults.poll());
+	}
+
+	@Test(timeout = 30000)
+	public void aSupervisedSocketGivesUpAfterTheMaximumAttempts() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger(0);
+		this.mLoopback.mPlugin.mTransport = new LoopbackTransport() {
+			@Override
+			public Transport.Connection connect(Transport.ConnectAttempt attempt) throws IOException {
+				attempts.incrementAndGet();
+				return mLoopback.mTransport.connect(attempt);
+			}
+		};
+
+		int socketId = this.mLoopback.connect(new JSONObject("{\"reconnect\": {\"initialDelay\": 10, \"maxDelay\": 20, \"maxAttempts\": 3}}"));
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+
+		// The remote device goes away, so that every reconnect is refused
+		this.mLoopback.mRemote.close();
+		remote.close();
+
+		assertEquals("Disconnected", this.mLoopback.takeReceiveError(socketId));
+		this.mLoopback.waitForRemoval(socketId);
+		assertEquals(1 + 3, attempts.get());
+	}
+
+	@Test(timeout = 30000)
+	public void closeEndsTheConnection() throws Exception {
+		int socketId = this.mLoopback.connect(null);
+		Transport.Connection remote = this.mLoopback.acceptRemote();
+
+		this.mLoopback.execute("close", socketId).takeSuccess();
+		assertNull(this.mLoopback.mPlugin.mClientSockets.get(socketId));
+		assertEquals(-1, remote.getInputStream().read());
+	}
+
+	@Test(timeout = 30000)
+	public void aFailingInboundHandlerFactoryFailsTheConnect() throws Exception {
+		NetworkingBluetooth.registerInboundHandler("failingCreate", new InboundHandler.Factory() {
+			public InboundHandler create() {
+				throw new IllegalStateException("failing");
+			}
+		});
+
+		JSONObject options = new JSONObject("{\"inboundHandler\": \"failingCreate\"}");
+		assertEquals("InboundHandler failed", this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), options).takeError());
+		assertEquals(-1, this.mLoopback.acceptRemote().getInputStream().read());
+		assertEquals(0, this.mLoopback.mPlugin.mClientSockets.size());
+	}
+
+	@Test(timeout = 30000)
+	public void aFailingOnCloseStillRemovesTheSocket() throws Exception {
+		NetworkingBluetooth.registerInboundHandler("failingClose", new InboundHandler.Factory() {
+			public InboundHandler create() {
+				return new InboundHandler() {
+					public boolean onReceive(InboundHandler.Context context, byte[] buffer, int offset, int length) {
+						return true;
+					}
+
+					public void onClose(InboundHandler.Context context) {
+						throw new IllegalStateException("failing");
+					}
+				};
+			}
+		});
+
+		int socketId = this.mLoopback.connect(new JSONObject("{\"inboundHandler\": \"failingClose\"}"));
+		this.mLoopback.acceptRemote().close();
+		this.mLoopback.takeReceiveError(socketId);
+		this.mLoopback.waitForRemoval(socketId);
+	}
+
+	@Test(timeout = 30000)
+	public void theSocketTypeIsParsed() throws Exception {
+		NetworkingBluetooth plugin = this.mLoopback.mPlugin;
+
+		assertEquals(Transport.TYPE_RFCOMM, plugin.getSocketType(null));
+		assertEquals(Transport.TYPE_RFCOMM, plugin.getSocketType(new JSONObject()));
+		assertEquals(Transport.TYPE_RFCOMM, plugin.getSocketType(new JSONObject("{\"type\": \"rfcomm\"}")));
+		assertEquals(Transport.TYPE_RFCOMM_INSECURE, plugin.getSocketType(new JSONObject("{\"type\": \"rfcommInsecure\"}")));
+		assertEquals(Transport.TYPE_L2CAP, plugin.getSocketType(new JSONObject("{\"type\": \"l2cap\"}")));
+		assertEquals(Transport.TYPE_L2CAP_INSECURE, plugin.getSocketType(new JSONObject("{\"type\": \"l2capInsecure\"}")));
+
+		assertEquals("Invalid type: RFCOMM", this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), new JSONObject("{\"type\": \"RFCOMM\"}")).takeError());
+		assertEquals("Invalid psm: 0", this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), new JSONObject("{\"type\": \"l2cap\"}")).takeError());
+	}
+
+	@Test(timeout = 30000)
+	public void anL2capSocketConnectsToThePsmOfTheListener() throws Exception {
+		int serverSocketId = Integer.parseInt(this.mLoopback.execute("listenUsingRfcomm", JSONObject.NULL, new JSONObject("{\"type\": \"l2cap\"}")).takeSuccess());
+		JSONObject serverInfo = new JSONObject(this.mLoopback.execute("getInfo", serverSocketId).takeSuccess());
+		assertEquals("l2cap", serverInfo.getString("type"));
+
+		JSONObject options = new JSONObject().put("type", "l2cap").put("psm", serverInfo.getInt("psm"));
+		int socketId = Integer.parseInt(this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, JSONObject.NULL, options).takeSuccess());
+		assertEquals("l2cap", new JSONObject(this.mLoopback.execute("getInfo", socketId).takeSuccess()).getString("type"));
+
+		PluginResult accept = this.mLoopback.mAccept.take();
+		assertEquals(String.valueOf(serverSocketId), accept.getMultipartMessage(0).getMessage());
+	}
+
+	@Test(timeout = 30000)
+	public void l2capIsNotSupportedBeforeAndroid10() throws Exception {
+		int sdkInt = Build.VERSION.SDK_INT;
+
+		Build.VERSION.SDK_INT = Build.VERSION_CODES.Q - 1;
+		try {
+			BluetoothTransport.checkL2capSupported();
+			fail("L2CAP supported before Android 10");
+		} catch (IOException e) {
+			assertEquals("L2CAP is not supported", e.getMessage());
+		} finally {
+			Build.VERSION.SDK_INT = sdkInt;
+		}
+
+		BluetoothTransport.checkL2capSupported();
+	}
+
+	@Test(timeout = 30000)
+	public void invalidOptionsFailTheConnect() throws Exception {
+		JSONObject options = new JSONObject("{\"framing\": {\"type\": \"unknown\"}}");
+
+		assertEquals("Invalid framing type: unknown", this.mLoopback.execute("connect", LoopbackTransport.ADDRESS, this.mLoopback.mUuid.toString(), options).takeError());
+		assertEquals("Invalid priority: urgent", this.mLoopback.send(1, new byte[1], new JSONObject("{\"priority\": \"urgent\"}")).takeError());
+	}
+}
@@ -0,0 +1,119 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+public class SelfTestTest {
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	public LoopbackTransport mTransport = new LoopbackTransport();
+	public UUID mUuid = UUID.randomUUID();
+	public Transport.Listener mListener;
+	public Thread mResponder;
+	public volatile IOException mResponderError;
+
+	@Before
+	public void setUp() throws IOException {
+		this.mListener = this.mTransport.listen(Transport.SERVICE_NAME, this.mUuid, Transport.TYPE_RFCOMM);
+		this.mResponder = new Thread() {
+			public void run() {
+				try {
+					// The listener returns null once it is closed
+					Transport.Connection connection = mListener.accept();
+					if (connection != null) {
+						SelfTest.respond(connection);
+					}
+				} catch (IOException e) {
+					mResponderError = e;
+				}
+			}
+		};
+		this.mResponder.start();
+	}
+
+	@After
+	public void tearDown() throws IOException, InterruptedException {
+		this.mListener.close();
+		this.mResponder.join();
+	}
+
+	public Transport.Connection connect() throws IOException {
+		return this.mTransport.connect(new Transport.ConnectAttempt(LoopbackTransport.ADDRESS, this.mUuid, Transport.TYPE_RFCOMM, 0));
+	}
+
+	@Test(timeout = 30000)
+	public void theTesterMeasuresTheResponder() throws Exception {
+		SelfTest selfTest = new SelfTest(new JSONObject("{\"pings\": 10, \"duration\": 100, \"chunkSize\": 1024}"));
+		Transport.Connection connection = this.connect();
+
+		JSONObject results = selfTest.run(connection);
+		connection.close();
+		this.mResponder.join();
+
+		assertEquals(null, this.mResponderError);
+		assertEquals(10, results.getJSONObject("rtt").getInt("count"));
+		assertTrue(results.getJSONObject("rtt").getDouble("max") >= results.getJSONObject("rtt").getDouble("min"));
+		assertTrue(results.getJSONObject("upload").getLong("bytes") > 0);
+		assertTrue(results.getJSONObject("download").getLong("bytes") > 0);
+		assertEquals(0, results.getJSONObject("download").getLong("bytes") % 1024);
+	}
+
+	@Test(timeout = 30000)
+	public void theResponderRejectsADurationPastTheMaximum() throws Exception {
+		Transport.Connection connection = this.connect();
+		DataOutputStream output = new DataOutputStream(connection.getOutputStream());
+
+		output.writeByte(SelfTest.DOWNLOAD);
+		output.writeInt(1024);
+		output.writeInt(SelfTest.MAX_DURATION + 1);
+		output.flush();
+		this.mResponder.join();
+
+		assertEquals("Invalid self-test message", this.mResponderError.getMessage());
+		connection.close();
+	}
+
+	@Test(timeout = 30000)
+	public void thePluginRunsBothSides() throws Exception {
+		LoopbackPlugin loopback = new LoopbackPlugin(this.mFolder.newFolder());
+
+		try {
+			String uuid = UUID.randomUUID().toString();
+			assertEquals("Missing uuid", loopback.execute("startSelfTestResponder", JSONObject.NULL).takeError());
+			loopback.execute("startSelfTestResponder", uuid).takeSuccess();
+
+			JSONObject results = new JSONObject(loopback.execute("runSelfTest", LoopbackTransport.ADDRESS, uuid, new JSONObject("{\"pings\": 5, \"duration\": 0}")).takeSuccess());
+			assertEquals(5, results.getJSONObject("rtt").getInt("count"));
+			assertTrue(results.has("connectDuration"));
+		} finally {
+			loopback.destroy();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package cordova.plugin.networking.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SendQueueTest {
+	@Test
+	public void lanesAreTakenInPriorityOrder() throws InterruptedException {
+		SendQueue<String> queue = new SendQueue<String>(16);
+
+		queue.offer("bulk 1", SendQueue.BULK);
+		queue.offer("normal 1", SendQueue.NORMAL);
+		queue.offer("bulk 2", SendQueue.BULK);
+		queue.offer("control 1", SendQueue.CONTROL);
+		queue.offer("normal 2", SendQueue.NORMAL);
+		queue.offer("control 2", SendQueue.CONTROL);
+
+		assertEquals(6, queue.size());
+		assertEquals("control 1", queue.peek());
+		assertEquals("control 1", queue.take());
+		assertEquals("control 2", queue.take());
+		assertEquals("normal 1", queue.poll());
+		assertEquals("normal 2", queue.take());
+		assertEquals("bulk 1", queue.take());
+		assertEquals("bulk 2", queue.take());
+		assertNull(queue.poll());
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void theCapacityIsSharedByTheLanes() {
+		SendQueue<String> queue = new SendQueue<String>(3);
+
+		assertTrue(queue.offer("a", SendQueue.BULK));
+		assertTrue(queue.offer("b", SendQueue.NORMAL));
+		assertTrue(queue.offer("c", SendQueue.CONTROL));
+		assertFalse(queue.offer("d", SendQueue.CONTROL));
+
+		queue.poll();
+		assertTrue(queue.offer("d", SendQueue.CONTROL));
+	}
+
+	@Test
+	public void requeuedElementsGoBackAtTheHeadOfTheirLane() throws InterruptedException {
+		SendQueue<String> queue = new SendQueue<String>(2);
+
+		queue.offer("bulk 1", SendQueue.BULK);
+		queue.offer("bulk 2", SendQueue.BULK);
+		assertEquals("bulk 1", queue.take());
+		queue.offer("control", SendQueue.CONTROL);
+
+		// The element taken is put back even though the queue is full again
+		assertTrue(queue.requeue("bulk 1", SendQueue.BULK));
+		assertEquals(3, queue.size());
+		assertEquals("control", queue.take());
+		assertEquals("bulk 1", queue.take());
+		assertEquals("bulk 2", queue.take());
+
+		queue.close();
+		assertFalse(queue.requeue("bulk 2", SendQueue.BULK));
+	}
+
+	@Test
+	public void removeTakesAnElementOutOfItsLane() {
+		SendQueue<String> queue = new SendQueue<String>(4);
+
+		queue.offer("a", SendQueue.NORMAL);
+		queue.offer("b", SendQueue.BULK);
+		assertTrue(queue.remove("b"));
+		assertFalse(queue.remove("b"));
+		assertEquals(1, queue.size());
+	}
+
+	@Test(timeout = 10000)
+	public void closeWakesUpTheWriter() throws InterruptedException {
+		final SendQueue<String> queue = new SendQueue<String>(4);
+		final String[] taken = {"not taken"};
+
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					taken[0] = queue.take();
+				} catch (InterruptedException e) {}
+			}
+		};
+		writer.start();
+
+		Thread.sleep(50);
+		queue.close();
+		writer.join();
+
+		assertNull(taken[0]);
+		assertTrue(queue.isClosed());
+		assertFalse(queue.offer("a", SendQueue.CONTROL));
+	}
+
+	@Test(timeout = 10000)
+	public void takeWaitsForAnOffer() throws InterruptedException {
+		final SendQueue<String> queue = new SendQueue<String>(4);
+		final String[] taken = {null};
+
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					taken[0] = queue.take();
+				} catch (InterruptedException e) {}
+			}
+		};
+		writer.start();
+
+		Thread.sleep(50);
+		queue.offer("a", SendQueue.BULK);
+		writer.join();
+
+		assertEquals("a", taken[0]);
+	}
+}
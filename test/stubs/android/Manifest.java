@@ -0,0 +1,23 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android;
+
+// The android.jar stand-ins let the plugin build and run on a desktop JVM, where there is no Bluetooth adapter
+public final class Manifest {
+	public static final class permission {
+		public static final String ACCESS_COARSE_LOCATION = "android.permission.ACCESS_COARSE_LOCATION";
+		public static final String ACCESS_FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+	}
+}
@@ -0,0 +1,35 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.app;
+
+import android.content.Context;
+
+import java.io.File;
+
+public class Activity extends Context {
+	public static final int RESULT_CANCELED = 0;
+	public static final int RESULT_OK = -1;
+
+	public File mCacheDir;
+
+	public Activity(File cacheDir) {
+		this.mCacheDir = cacheDir;
+	}
+
+	@Override
+	public File getCacheDir() {
+		return this.mCacheDir;
+	}
+}
@@ -0,0 +1,107 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+
+// There is no adapter on the JVM, so that the methods of the instances are never called
+public final class BluetoothAdapter {
+	public static final String ACTION_STATE_CHANGED = "android.bluetooth.adapter.action.STATE_CHANGED";
+	public static final String ACTION_DISCOVERY_STARTED = "android.bluetooth.adapter.action.DISCOVERY_STARTED";
+	public static final String ACTION_DISCOVERY_FINISHED = "android.bluetooth.adapter.action.DISCOVERY_FINISHED";
+	public static final String ACTION_SCAN_MODE_CHANGED = "android.bluetooth.adapter.action.SCAN_MODE_CHANGED";
+	public static final String ACTION_REQUEST_ENABLE = "android.bluetooth.adapter.action.REQUEST_ENABLE";
+	public static final String ACTION_REQUEST_DISCOVERABLE = "android.bluetooth.adapter.action.REQUEST_DISCOVERABLE";
+	public static final String EXTRA_STATE = "android.bluetooth.adapter.extra.STATE";
+	public static final String EXTRA_PREVIOUS_STATE = "android.bluetooth.adapter.extra.PREVIOUS_STATE";
+	public static final String EXTRA_SCAN_MODE = "android.bluetooth.adapter.extra.SCAN_MODE";
+	public static final String EXTRA_DISCOVERABLE_DURATION = "android.bluetooth.adapter.extra.DISCOVERABLE_DURATION";
+	public static final int STATE_OFF = 10;
+	public static final int STATE_TURNING_ON = 11;
+	public static final int STATE_ON = 12;
+	public static final int STATE_TURNING_OFF = 13;
+	public static final int SCAN_MODE_NONE = 20;
+	public static final int SCAN_MODE_CONNECTABLE = 21;
+	public static final int SCAN_MODE_CONNECTABLE_DISCOVERABLE = 23;
+
+	private BluetoothAdapter() {
+	}
+
+	public static BluetoothAdapter getDefaultAdapter() {
+		return null;
+	}
+
+	public String getAddress() {
+		throw new UnsupportedOperationException();
+	}
+
+	public String getName() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean isEnabled() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean enable() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean disable() {
+		throw new UnsupportedOperationException();
+	}
+
+	public int getScanMode() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean isDiscovering() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean startDiscovery() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean cancelDiscovery() {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothDevice getRemoteDevice(String address) {
+		throw new UnsupportedOperationException();
+	}
+
+	public Set<BluetoothDevice> getBondedDevices() {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothServerSocket listenUsingRfcommWithServiceRecord(String name, UUID uuid) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothServerSocket listenUsingInsecureRfcommWithServiceRecord(String name, UUID uuid) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothServerSocket listenUsingL2capChannel() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothServerSocket listenUsingInsecureL2capChannel() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+}
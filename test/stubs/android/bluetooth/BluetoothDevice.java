@@ -0,0 +1,82 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.bluetooth;
+
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+
+import java.io.IOException;
+import java.util.UUID;
+
+public final class BluetoothDevice implements Parcelable {
+	public static final String ACTION_FOUND = "android.bluetooth.device.action.FOUND";
+	public static final String ACTION_BOND_STATE_CHANGED = "android.bluetooth.device.action.BOND_STATE_CHANGED";
+	public static final String ACTION_NAME_CHANGED = "android.bluetooth.device.action.NAME_CHANGED";
+	public static final String ACTION_UUID = "android.bluetooth.device.action.UUID";
+	public static final String EXTRA_DEVICE = "android.bluetooth.device.extra.DEVICE";
+	public static final String EXTRA_NAME = "android.bluetooth.device.extra.NAME";
+	public static final String EXTRA_CLASS = "android.bluetooth.device.extra.CLASS";
+	public static final String EXTRA_RSSI = "android.bluetooth.device.extra.RSSI";
+	public static final int BOND_NONE = 10;
+	public static final int BOND_BONDED = 12;
+
+	// The properties of the device are set by the tests and the benchmarks, that make the devices directly
+	public String mAddress;
+	public volatile String mName = null;
+	public volatile int mBondState = BOND_NONE;
+	public volatile ParcelUuid[] mUuids = null;
+	public volatile int mFetchUuidsCount = 0;
+
+	public BluetoothDevice(String address) {
+		this.mAddress = address;
+	}
+
+	public String getAddress() {
+		return this.mAddress;
+	}
+
+	public String getName() {
+		return this.mName;
+	}
+
+	public int getBondState() {
+		return this.mBondState;
+	}
+
+	public ParcelUuid[] getUuids() {
+		return this.mUuids;
+	}
+
+	public boolean fetchUuidsWithSdp() {
+		this.mFetchUuidsCount++;
+		return true;
+	}
+
+	public BluetoothSocket createRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothSocket createInsecureRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothSocket createL2capChannel(int psm) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothSocket createInsecureL2capChannel(int psm) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,49 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public final class BluetoothSocket implements Closeable {
+	private BluetoothSocket() {
+	}
+
+	public void connect() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean isConnected() {
+		throw new UnsupportedOperationException();
+	}
+
+	public BluetoothDevice getRemoteDevice() {
+		throw new UnsupportedOperationException();
+	}
+
+	public InputStream getInputStream() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,72 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.content;
+
+import android.os.Parcelable;
+
+import java.util.HashMap;
+
+public class Intent {
+	public String mAction;
+	public HashMap<String, Object> mExtras = new HashMap<String, Object>();
+
+	public Intent(String action) {
+		this.mAction = action;
+	}
+
+	public String getAction() {
+		return this.mAction;
+	}
+
+	public Intent putExtra(String name, int value) {
+		this.mExtras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, short value) {
+		this.mExtras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, String value) {
+		this.mExtras.put(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, Parcelable value) {
+		this.mExtras.put(name, value);
+		return this;
+	}
+
+	public int getIntExtra(String name, int defaultValue) {
+		Object value = this.mExtras.get(name);
+		return (value instanceof Integer) ? (Integer) value : defaultValue;
+	}
+
+	public short getShortExtra(String name, short defaultValue) {
+		Object value = this.mExtras.get(name);
+		return (value instanceof Short) ? (Short) value : defaultValue;
+	}
+
+	public String getStringExtra(String name) {
+		Object value = this.mExtras.get(name);
+		return (value instanceof String) ? (String) value : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T extends Parcelable> T getParcelableExtra(String name) {
+		return (T) this.mExtras.get(name);
+	}
+}
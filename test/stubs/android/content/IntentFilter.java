@@ -0,0 +1,32 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.content;
+
+import java.util.ArrayList;
+
+public class IntentFilter {
+	public ArrayList<String> mActions = new ArrayList<String>();
+
+	public IntentFilter() {
+	}
+
+	public IntentFilter(String action) {
+		this.addAction(action);
+	}
+
+	public void addAction(String action) {
+		this.mActions.add(action);
+	}
+}
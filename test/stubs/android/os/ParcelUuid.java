@@ -0,0 +1,34 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package android.os;
+
+import java.util.UUID;
+
+public final class ParcelUuid implements Parcelable {
+	public UUID mUuid;
+
+	public ParcelUuid(UUID uuid) {
+		this.mUuid = uuid;
+	}
+
+	public UUID getUuid() {
+		return this.mUuid;
+	}
+
+	@Override
+	public String toString() {
+		return this.mUuid.toString();
+	}
+}
@@ -0,0 +1,80 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Without a WebView the results go nowhere, so that the tests and the benchmarks override sendPluginResult
+public class CallbackContext {
+	private String callbackId;
+	protected CordovaWebView webView;
+	protected boolean finished;
+
+	public CallbackContext(String callbackId, CordovaWebView webView) {
+		this.callbackId = callbackId;
+		this.webView = webView;
+	}
+
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	public String getCallbackId() {
+		return this.callbackId;
+	}
+
+	public void sendPluginResult(PluginResult pluginResult) {
+		synchronized (this) {
+			this.finished = !pluginResult.getKeepCallback();
+		}
+	}
+
+	public void success(JSONObject message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(String message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(JSONArray message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(byte[] message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(int message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success() {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+	}
+
+	public void error(JSONObject message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public void error(String message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public void error(int message) {
+		this.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+}
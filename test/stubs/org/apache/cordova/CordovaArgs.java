@@ -0,0 +1,74 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Base64;
+
+public class CordovaArgs {
+	public JSONArray baseArgs;
+
+	public CordovaArgs(JSONArray args) {
+		this.baseArgs = args;
+	}
+
+	public Object get(int index) throws JSONException {
+		return this.baseArgs.get(index);
+	}
+
+	public boolean getBoolean(int index) throws JSONException {
+		return this.baseArgs.getBoolean(index);
+	}
+
+	public int getInt(int index) throws JSONException {
+		return this.baseArgs.getInt(index);
+	}
+
+	public long getLong(int index) throws JSONException {
+		return this.baseArgs.getLong(index);
+	}
+
+	public String getString(int index) throws JSONException {
+		return this.baseArgs.getString(index);
+	}
+
+	public JSONArray getJSONArray(int index) throws JSONException {
+		return this.baseArgs.getJSONArray(index);
+	}
+
+	public JSONObject getJSONObject(int index) throws JSONException {
+		return this.baseArgs.getJSONObject(index);
+	}
+
+	// The ArrayBuffers are sent by the bridge as Base64 strings
+	public byte[] getArrayBuffer(int index) throws JSONException {
+		return Base64.decode(this.baseArgs.getString(index), Base64.DEFAULT);
+	}
+
+	public boolean isNull(int index) {
+		return this.baseArgs.isNull(index);
+	}
+
+	public JSONObject optJSONObject(int index) {
+		return this.baseArgs.optJSONObject(index);
+	}
+
+	public String optString(int index) {
+		return this.baseArgs.optString(index);
+	}
+}
@@ -0,0 +1,28 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.apache.cordova;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import java.util.concurrent.ExecutorService;
+
+public interface CordovaInterface {
+	public void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode);
+	public Activity getActivity();
+	public ExecutorService getThreadPool();
+	public void requestPermission(CordovaPlugin plugin, int requestCode, String permission);
+	public boolean hasPermission(String permission);
+}
@@ -0,0 +1,68 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.apache.cordova;
+
+import org.json.JSONException;
+
+import android.content.Intent;
+
+public class CordovaPlugin {
+	public CordovaWebView webView;
+	public CordovaInterface cordova;
+	protected CordovaPreferences preferences;
+	private String serviceName;
+
+	// Called by the plugin manager of cordova-android, and by the tests
+	public final void privateInitialize(String serviceName, CordovaInterface cordova, CordovaWebView webView, CordovaPreferences preferences) {
+		this.serviceName = serviceName;
+		this.cordova = cordova;
+		this.webView = webView;
+		this.preferences = preferences;
+		this.initialize(cordova, webView);
+		this.pluginInitialize();
+	}
+
+	public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+	}
+
+	protected void pluginInitialize() {
+	}
+
+	public String getServiceName() {
+		return this.serviceName;
+	}
+
+	public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+		return false;
+	}
+
+	public void onPause(boolean multitasking) {
+	}
+
+	public void onResume(boolean multitasking) {
+	}
+
+	public void onReset() {
+	}
+
+	public void onDestroy() {
+	}
+
+	public void onActivityResult(int requestCode, int resultCode, Intent intent) {
+	}
+
+	public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults) throws JSONException {
+	}
+}
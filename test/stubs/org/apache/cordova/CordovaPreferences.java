@@ -0,0 +1,54 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.apache.cordova;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+public class CordovaPreferences {
+	public HashMap<String, String> mPrefs = new HashMap<String, String>();
+
+	public void set(String name, String value) {
+		this.mPrefs.put(name.toLowerCase(Locale.ENGLISH), value);
+	}
+
+	public void set(String name, boolean value) {
+		this.set(name, String.valueOf(value));
+	}
+
+	public void set(String name, int value) {
+		this.set(name, String.valueOf(value));
+	}
+
+	public boolean contains(String name) {
+		return (this.getString(name, null) != null);
+	}
+
+	public boolean getBoolean(String name, boolean defaultValue) {
+		String value = this.getString(name, null);
+		return (value != null) ? Boolean.parseBoolean(value) : defaultValue;
+	}
+
+	public int getInteger(String name, int defaultValue) {
+		String value = this.getString(name, null);
+		// Like cordova-android, the integers may be written in hexadecimal
+		return (value != null) ? Integer.decode(value) : defaultValue;
+	}
+
+	public String getString(String name, String defaultValue) {
+		String value = this.mPrefs.get(name.toLowerCase(Locale.ENGLISH));
+		return (value != null) ? value : defaultValue;
+	}
+}
@@ -0,0 +1,141 @@
+// Copyright 2016 Franco Bugnano
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//	http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import android.util.Base64;
+
+import java.util.List;
+
+public class PluginResult {
+	public enum Status {
+		NO_RESULT,
+		OK,
+		CLASS_NOT_FOUND_EXCEPTION,
+		ILLEGAL_ACCESS_EXCEPTION,
+		INSTANTIATION_EXCEPTION,
+		MALFORMED_URL_EXCEPTION,
+		IO_EXCEPTION,
+		INVALID_ACTION,
+		JSON_EXCEPTION,
+		ERROR
+	}
+
+	public static final int MESSAGE_TYPE_STRING = 1;
+	public static final int MESSAGE_TYPE_JSON = 2;
+	public static final int MESSAGE_TYPE_NUMBER = 3;
+	public static final int MESSAGE_TYPE_BOOLEAN = 4;
+	public static final int MESSAGE_TYPE_NULL = 5;
+	public static final int MESSAGE_TYPE_ARRAYBUFFER = 6;
+	public static final int MESSAGE_TYPE_BINARYSTRING = 7;
+	public static final int MESSAGE_TYPE_MULTIPART = 8;
+
+	private final int status;
+	private final int messageType;
+	private boolean keepCallback = false;
+	private String strMessage;
+	private String encodedMessage;
+	private List<PluginResult> multipartMessages;
+
+	public PluginResult(Status status) {
+		this(status, status.name());
+	}
+
+	public PluginResult(Status status, String message) {
+		this.status = status.ordinal();
+		this.messageType = (message == null) ? MESSAGE_TYPE_NULL : MESSAGE_TYPE_STRING;
+		this.strMessage = message;
+	}
+
+	public PluginResult(Status status, JSONArray message) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_JSON;
+		this.encodedMessage = message.toString();
+	}
+
+	public PluginResult(Status status, JSONObject message) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_JSON;
+		this.encodedMessage = message.toString();
+	}
+
+	public PluginResult(Status status, int i) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_NUMBER;
+		this.encodedMessage = "" + i;
+	}
+
+	public PluginResult(Status status, float f) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_NUMBER;
+		this.encodedMessage = "" + f;
+	}
+
+	public PluginResult(Status status, boolean b) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_BOOLEAN;
+		this.encodedMessage = Boolean.toString(b);
+	}
+
+	// As in cordova-android, the data is encoded right away, so that the array can be reused after
+	public PluginResult(Status status, byte[] data) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_ARRAYBUFFER;
+		this.encodedMessage = Base64.encodeToString(data, Base64.NO_WRAP);
+	}
+
+	public PluginResult(Status status, List<PluginResult> multipartMessages) {
+		this.status = status.ordinal();
+		this.messageType = MESSAGE_TYPE_MULTIPART;
+		this.multipartMessages = multipartMessages;
+	}
+
+	public void setKeepCallback(boolean b) {
+		this.keepCallback = b;
+	}
+
+	public int getStatus() {
+		return this.status;
+	}
+
+	public int getMessageType() {
+		return this.messageType;
+	}
+
+	public String getMessage() {
+		if (this.encodedMessage == null) {
+			this.encodedMessage = JSONObject.quote(this.strMessage);
+		}
+		return this.encodedMessage;
+	}
+
+	public int getMultipartMessagesSize() {
+		return this.multipartMessages.size();
+	}
+
+	public PluginResult getMultipartMessage(int index) {
+		return this.multipartMessages.get(index);
+	}
+
+	public String getStrMessage() {
+		return this.strMessage;
+	}
+
+	public boolean getKeepCallback() {
+		return this.keepCallback;
+	}
+}
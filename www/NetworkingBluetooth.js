@@ -42,6 +42,10 @@ exports.getDevices = function (success, error) {
 	exec(success, error, 'NetworkingBluetooth', 'getDevices', []);
 };
 
+exports.fetchUuidsWithSdp = function (deviceAddress, success, error) {
+	exec(success, error, 'NetworkingBluetooth', 'fetchUuidsWithSdp', [deviceAddress]);
+};
+
 exports.startDiscovery = function (success, error) {
 	exec(success, error, 'NetworkingBluetooth', 'startDiscovery', []);
 };
@@ -54,20 +58,130 @@ exports.requestDiscoverable = function (success, error) {
 	exec(success, error, 'NetworkingBluetooth', 'requestDiscoverable', []);
 };
 
-exports.connect = function (address, uuid, success, error) {
-	exec(success, error, 'NetworkingBluetooth', 'connect', [address, uuid]);
+// The options are sent as JSON, where an ArrayBuffer would be lost
+var socketOptions = function (options) {
+	var copy = {}, key;
+
+	options = options || {};
+	if (!options.keepAlive || !options.keepAlive.data) {
+		return options;
+	}
+
+	for (key in options) {
+		copy[key] = options[key];
+	}
+	copy.keepAlive = {};
+	for (key in options.keepAlive) {
+		copy.keepAlive[key] = options.keepAlive[key];
+	}
+	copy.keepAlive.data = Array.prototype.slice.call(new Uint8Array(options.keepAlive.data));
+
+	return copy;
+};
+
+exports.connect = function (address, uuid, options, success, error) {
+	if (typeof options === 'function') {
+		error = success;
+		success = options;
+		options = {};
+	}
+
+	exec(success, error, 'NetworkingBluetooth', 'connect', [address, uuid, socketOptions(options)]);
+};
+
+exports.cancelConnect = function (address, uuid, success, error) {
+	if (typeof uuid === 'function') {
+		error = success;
+		success = uuid;
+		uuid = null;
+	}
+
+	exec(success, error, 'NetworkingBluetooth', 'cancelConnect', [address, uuid]);
 };
 
 exports.close = function (socketId, success, error) {
 	exec(success, error, 'NetworkingBluetooth', 'close', [socketId]);
 };
 
-exports.send = function (socketId, data, success, error) {
-	exec(success, error, 'NetworkingBluetooth', 'send', [socketId, data]);
+exports.send = function (socketId, data, options, success, error) {
+	if (typeof options === 'function') {
+		error = success;
+		success = options;
+		options = {};
+	}
+
+	exec(success, error, 'NetworkingBluetooth', 'send', [socketId, data, options || {}]);
+};
+
+exports.sendToMany = function (socketIds, data, success, error) {
+	exec(success, error, 'NetworkingBluetooth', 'sendToMany', [socketIds, data]);
+};
+
+// The file transfers report their progress before the final result
+var fileTransfer = function (action, args, success, error, progress) {
+	exec(function (info) {
+		if (info.done) {
+			if (success) {
+				success(info.bytesTransferred);
+			}
+		} else if (progress) {
+			progress(info);
+		}
+	}, error, 'NetworkingBluetooth', action, args);
+};
+
+exports.sendFile = function (socketId, path, success, error, progress) {
+	fileTransfer('sendFile', [socketId, path], success, error, progress);
+};
+
+exports.receiveToFile = function (socketId, path, length, success, error, progress) {
+	fileTransfer('receiveToFile', [socketId, path, length], success, error, progress);
 };
 
-exports.listenUsingRfcomm = function (uuid, success, error) {
-	exec(success, error, 'NetworkingBluetooth', 'listenUsingRfcomm', [uuid]);
+exports.setPaused = function (socketId, paused, success, error) {
+	exec(success, error, 'NetworkingBluetooth', 'setPaused', [socketId, paused]);
+};
+
+exports.getInfo = function (socketId, success, error) {
+	exec(success, error, 'NetworkingBluetooth', 'getInfo', [socketId]);
+};
+
+exports.getSockets = function (success, error) {
+	exec(success, error, 'NetworkingBluetooth', 'getSockets', []);
+};
+
+exports.listenUsingRfcomm = function (uuid, options, success, error) {
+	if (typeof options === 'function') {
+		error = success;
+		success = options;
+		options = {};
+	}
+
+	exec(success, error, 'NetworkingBluetooth', 'listenUsingRfcomm', [uuid, socketOptions(options)]);
+};
+
+exports.getResourceUsage = function (success, error) {
+	exec(success, error, 'NetworkingBluetooth', 'getResourceUsage', []);
+};
+
+exports.startSelfTestResponder = function (uuid, options, success, error) {
+	if (typeof options === 'function') {
+		error = success;
+		success = options;
+		options = {};
+	}
+
+	exec(success, error, 'NetworkingBluetooth', 'startSelfTestResponder', [uuid, options || {}]);
+};
+
+exports.runSelfTest = function (address, uuid, options, success, error) {
+	if (typeof options === 'function') {
+		error = success;
+		success = options;
+		options = {};
+	}
+
+	exec(success, error, 'NetworkingBluetooth', 'runSelfTest', [address, uuid, options || {}]);
 };
 
 // Events
@@ -83,22 +197,55 @@ exports.onReceive.init();
 exports.onReceiveError = Object.create(CDVNetEvent);
 exports.onReceiveError.init();
 
+exports.onDrain = Object.create(CDVNetEvent);
+exports.onDrain.init();
+
 exports.onAccept = Object.create(CDVNetEvent);
 exports.onAccept.init();
 
 exports.onAcceptError = Object.create(CDVNetEvent);
 exports.onAcceptError.init();
 
+// Fires an onReceive event for each record of a receive envelope.
+// Each record has an 8 bytes header: the socketId (4 bytes), the flags (1 byte) and the length (3 bytes).
+var fireReceiveEnvelope = function (envelope) {
+	var view = new DataView(envelope);
+	var offset = 0;
+	var socketId;
+	var length;
+
+	while (offset < envelope.byteLength) {
+		socketId = view.getUint32(offset);
+		length = view.getUint32(offset + 4) & 0xffffff;
+		offset += 8;
+
+		exports.onReceive.fire({
+			socketId: socketId,
+			data: envelope.slice(offset, offset + length)
+		});
+		offset += length;
+	}
+};
+
 channel.onCordovaReady.subscribe(function() {
 	exec(function (adapterState) {
 		exports.onAdapterStateChanged.fire(adapterState);
 	}, null, 'NetworkingBluetooth', 'registerAdapterStateChanged', []);
 
-	exec(function (deviceInfo) {
-		exports.onDeviceAdded.fire(deviceInfo);
+	exec(function (deviceInfos) {
+		// The devices are sent in batches
+		for (var i = 0; i < deviceInfos.length; i++) {
+			exports.onDeviceAdded.fire(deviceInfos[i]);
+		}
 	}, null, 'NetworkingBluetooth', 'registerDeviceAdded', []);
 
 	exec(function (socketId, data) {
+		// With the receive envelope, the data of all the sockets comes in a single ArrayBuffer
+		if (socketId instanceof ArrayBuffer) {
+			fireReceiveEnvelope(socketId);
+			return;
+		}
+
 		exports.onReceive.fire({
 			socketId: socketId,
 			data: data
@@ -109,6 +256,10 @@ channel.onCordovaReady.subscribe(function() {
 		exports.onReceiveError.fire(info);
 	}, null, 'NetworkingBluetooth', 'registerReceiveError', []);
 
+	exec(function (info) {
+		exports.onDrain.fire(info);
+	}, null, 'NetworkingBluetooth', 'registerDrain', []);
+
 	exec(function (serverSocketId, clientSocketId) {
 		exports.onAccept.fire({
 			socketId: serverSocketId,